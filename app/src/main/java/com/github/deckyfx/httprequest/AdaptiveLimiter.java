@@ -0,0 +1,107 @@
+package com.github.deckyfx.httprequest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host concurrency limit that adapts to observed latency (AIMD). The limit grows by one per
+ * window of healthy calls and is cut by {@link #DEFAULT_BACKOFF_RATIO} when calls fail, time out
+ * or take much longer than the fastest recently seen call to that host.
+ */
+public class AdaptiveLimiter implements PrintingEventListener.CallObserver {
+    public static final int DEFAULT_INITIAL_LIMIT               = 5;
+    public static final int DEFAULT_MIN_LIMIT                   = 1;
+    public static final int DEFAULT_MAX_LIMIT                   = 32;
+    public static final double DEFAULT_BACKOFF_RATIO            = 0.7;
+    public static final double DEFAULT_LATENCY_TOLERANCE        = 2.0;
+
+    private final ConcurrentHashMap<String, HostLimit> mHosts   = new ConcurrentHashMap<String, HostLimit>();
+    private final int mInitialLimit;
+    private final int mMinLimit;
+    private final int mMaxLimit;
+
+    public AdaptiveLimiter(int initialLimit) {
+        this(initialLimit, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0) throw new IllegalArgumentException("minLimit <= 0");
+        if (maxLimit < minLimit) throw new IllegalArgumentException("maxLimit < minLimit");
+        this.mMinLimit = minLimit;
+        this.mMaxLimit = maxLimit;
+        this.mInitialLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public int getLimit(String host) {
+        HostLimit limit = this.mHosts.get(host);
+        return limit != null ? limit.limit() : this.mInitialLimit;
+    }
+
+    /** Snapshot of the current limit of every host seen so far. */
+    public Map<String, Integer> getLimits() {
+        HashMap<String, Integer> result = new HashMap<String, Integer>();
+        for (Map.Entry<String, HostLimit> entry : this.mHosts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().limit());
+        }
+        return result;
+    }
+
+    /** Fastest recent time to response headers for {@code host}, or -1 if unknown. */
+    public double getBaselineLatencyMillis(String host) {
+        HostLimit limit = this.mHosts.get(host);
+        return limit != null ? limit.baselineMillis() : -1;
+    }
+
+    @Override
+    public void onCallCompleted(String host, long latencyNanos, boolean failed, boolean timedOut) {
+        HostLimit limit = this.mHosts.get(host);
+        if (limit == null) {
+            HostLimit created = new HostLimit(this.mInitialLimit);
+            limit = this.mHosts.putIfAbsent(host, created);
+            if (limit == null) limit = created;
+        }
+        limit.sample(latencyNanos, failed || timedOut);
+    }
+
+    private final class HostLimit {
+        private double mLimit;
+        private long mBaselineNanos                             = Long.MAX_VALUE;
+        private long mLastDecreaseNanos                         = 0;
+        private int mSamples                                    = 0;
+
+        HostLimit(int initialLimit) {
+            this.mLimit = initialLimit;
+        }
+
+        synchronized int limit() {
+            return (int) this.mLimit;
+        }
+
+        synchronized double baselineMillis() {
+            return this.mBaselineNanos == Long.MAX_VALUE ? -1 : this.mBaselineNanos / 1000000d;
+        }
+
+        synchronized void sample(long latencyNanos, boolean dropped) {
+            long now = System.nanoTime();
+            if (!dropped && latencyNanos > 0) {
+                // Let the baseline drift up slowly so a route change does not pin it forever
+                if (++this.mSamples % 100 == 0 && this.mBaselineNanos != Long.MAX_VALUE) {
+                    this.mBaselineNanos += this.mBaselineNanos / 10;
+                }
+                this.mBaselineNanos = Math.min(this.mBaselineNanos, latencyNanos);
+            }
+            boolean congested = dropped || latencyNanos > this.mBaselineNanos * DEFAULT_LATENCY_TOLERANCE;
+            if (congested) {
+                // Back off at most once per baseline round trip, one slow burst is one signal
+                long window = this.mBaselineNanos == Long.MAX_VALUE ? 0 : this.mBaselineNanos;
+                if (this.mLastDecreaseNanos == 0 || now - this.mLastDecreaseNanos >= window) {
+                    this.mLimit = Math.max(mMinLimit, this.mLimit * DEFAULT_BACKOFF_RATIO);
+                    this.mLastDecreaseNanos = now;
+                }
+            } else {
+                this.mLimit = Math.min(mMaxLimit, this.mLimit + 1d / Math.max(1d, this.mLimit));
+            }
+        }
+    }
+}
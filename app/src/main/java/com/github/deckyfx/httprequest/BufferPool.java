@@ -0,0 +1,204 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.BufferedSource;
+
+/**
+ * Pool of byte arrays in power of two size classes, used to read response bodies without
+ * allocating a new array for every response. Arrays larger than the biggest class are neither
+ * pooled nor kept.
+ *
+ * <p>The pool also caps the bytes handed out and not yet released, i.e. the response bodies held
+ * in heap across all requests. A read that would go over the cap waits up to
+ * {@link #setMaxWaitMillis} for other bodies to be released, then fails with
+ * {@link ErrorString#RESPONSE_TOO_LARGE}.
+ */
+public class BufferPool {
+    public static final int MIN_CLASS_SIZE                      = 4 * 1024;
+    public static final int MAX_CLASS_SIZE                      = 1024 * 1024;
+    public static final int DEFAULT_ARRAYS_PER_CLASS            = 4;
+    public static final long DEFAULT_MAX_WAIT_MILLIS            = 2000;
+
+    private static volatile BufferPool sDefault;
+
+    private final ArrayDeque<byte[]>[] mClasses;
+    private final int mArraysPerClass;
+    private final AtomicLong mHits                              = new AtomicLong();
+    private final AtomicLong mMisses                            = new AtomicLong();
+    private final Object mBudgetLock                            = new Object();
+    private long mOutstandingBytes                              = 0;
+    private long mMaxBufferedBytes                              = Runtime.getRuntime().maxMemory() / 4;
+    private long mMaxWaitMillis                                 = DEFAULT_MAX_WAIT_MILLIS;
+
+    public BufferPool() {
+        this(DEFAULT_ARRAYS_PER_CLASS);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int arraysPerClass) {
+        if (arraysPerClass < 0) throw new IllegalArgumentException("arraysPerClass < 0");
+        int classes = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - Integer.numberOfTrailingZeros(MIN_CLASS_SIZE) + 1;
+        this.mClasses = new ArrayDeque[classes];
+        for (int i = 0; i < classes; i++) {
+            this.mClasses[i] = new ArrayDeque<byte[]>();
+        }
+        this.mArraysPerClass = arraysPerClass;
+    }
+
+    public static BufferPool getDefault() {
+        if (sDefault == null) {
+            synchronized (BufferPool.class) {
+                if (sDefault == null) {
+                    sDefault = new BufferPool();
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /** Index of the smallest class holding {@code size} bytes, -1 if none does. */
+    private static int classOf(int size) {
+        if (size > MAX_CLASS_SIZE) return -1;
+        int rounded = size <= MIN_CLASS_SIZE ? MIN_CLASS_SIZE : Integer.highestOneBit(size - 1) << 1;
+        return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    }
+
+    /** Caps the bytes of all arrays handed out and not released yet, a quarter of the heap by default. */
+    public void setMaxBufferedBytes(long maxBufferedBytes) {
+        if (maxBufferedBytes <= 0) throw new IllegalArgumentException("maxBufferedBytes <= 0");
+        synchronized (this.mBudgetLock) {
+            this.mMaxBufferedBytes = maxBufferedBytes;
+            this.mBudgetLock.notifyAll();
+        }
+    }
+
+    /** How long an acquire waits for room under the cap before failing, 0 fails right away. */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        if (maxWaitMillis < 0) throw new IllegalArgumentException("maxWaitMillis < 0");
+        synchronized (this.mBudgetLock) {
+            this.mMaxWaitMillis = maxWaitMillis;
+        }
+    }
+
+    public long getBufferedBytes() {
+        synchronized (this.mBudgetLock) {
+            return this.mOutstandingBytes;
+        }
+    }
+
+    private void reserve(int size) throws IOException {
+        synchronized (this.mBudgetLock) {
+            if (size > this.mMaxBufferedBytes) throw new IOException(ErrorString.RESPONSE_TOO_LARGE);
+            long deadline = System.nanoTime() + this.mMaxWaitMillis * 1000000L;
+            while (this.mOutstandingBytes + size > this.mMaxBufferedBytes) {
+                long waitMillis = (deadline - System.nanoTime()) / 1000000L;
+                if (waitMillis <= 0) throw new IOException(ErrorString.RESPONSE_TOO_LARGE);
+                try {
+                    this.mBudgetLock.wait(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new java.io.InterruptedIOException();
+                }
+            }
+            this.mOutstandingBytes += size;
+        }
+    }
+
+    private void unreserve(int size) {
+        synchronized (this.mBudgetLock) {
+            this.mOutstandingBytes = Math.max(0, this.mOutstandingBytes - size);
+            this.mBudgetLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns an array of at least {@code minSize} bytes, hand it back with {@link #release}.
+     * Throws if the array does not fit under the buffered bytes cap in time.
+     */
+    public byte[] acquire(int minSize) throws IOException {
+        int index = classOf(minSize);
+        int size = index < 0 ? minSize : MIN_CLASS_SIZE << index;
+        this.reserve(size);
+        if (index < 0) {
+            this.mMisses.incrementAndGet();
+            return new byte[minSize];
+        }
+        ArrayDeque<byte[]> pool = this.mClasses[index];
+        byte[] array;
+        synchronized (pool) {
+            array = pool.pollFirst();
+        }
+        if (array != null) {
+            this.mHits.incrementAndGet();
+            return array;
+        }
+        this.mMisses.incrementAndGet();
+        return new byte[MIN_CLASS_SIZE << index];
+    }
+
+    /** Takes back an array returned by {@link #acquire}. */
+    public void release(byte[] array) {
+        this.unreserve(array.length);
+        int index = classOf(array.length);
+        // Only exact class sizes go back, anything else was not handed out by acquire()
+        if (index < 0 || array.length != MIN_CLASS_SIZE << index) return;
+        ArrayDeque<byte[]> pool = this.mClasses[index];
+        synchronized (pool) {
+            if (pool.size() < this.mArraysPerClass) pool.addFirst(array);
+        }
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.hasArray()) this.release(buffer.array());
+    }
+
+    /**
+     * Reads {@code source} to the end into a pooled array. The returned buffer spans the bytes
+     * read and must be handed back with {@link #release(ByteBuffer)} once it is no longer used.
+     */
+    public ByteBuffer read(BufferedSource source, long sizeHint) throws IOException {
+        return this.read(source, sizeHint, -1);
+    }
+
+    /**
+     * Like {@link #read(BufferedSource, long)}, but stops once more than {@code limit} bytes were
+     * read, leaving the rest in {@code source}. A negative {@code limit} reads to the end.
+     */
+    public ByteBuffer read(BufferedSource source, long sizeHint, long limit) throws IOException {
+        long maxSize = limit >= 0 ? Math.min(limit + 1, Integer.MAX_VALUE - 8) : Integer.MAX_VALUE - 8;
+        int size = (int) Math.min(sizeHint > 0 ? sizeHint : MIN_CLASS_SIZE, maxSize);
+        byte[] array = this.acquire(size);
+        int length = 0;
+        try {
+            while (length <= limit || limit < 0) {
+                if (length == array.length) {
+                    if (source.exhausted()) break;
+                    if (array.length >= maxSize) throw new IOException(ErrorString.RESPONSE_TOO_LARGE);
+                    byte[] bigger = this.acquire((int) Math.min(array.length * 2L, maxSize));
+                    System.arraycopy(array, 0, bigger, 0, length);
+                    this.release(array);
+                    array = bigger;
+                }
+                int read = source.read(array, length, array.length - length);
+                if (read == -1) break;
+                length += read;
+            }
+        } catch (IOException e) {
+            this.release(array);
+            throw e;
+        }
+        return ByteBuffer.wrap(array, 0, length);
+    }
+
+    public long getHitCount() {
+        return this.mHits.get();
+    }
+
+    public long getMissCount() {
+        return this.mMisses.get();
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import okhttp3.Response;
+
+/**
+ * A {@link RequestListener} that receives successful response bodies as a {@link ByteBuffer}
+ * over a pooled array, without the String copy.
+ */
+public interface BufferRequestListener extends RequestListener {
+    /**
+     * Called on the OkHttp thread for a 2xx response, before {@link #onHTTPRequestFinish}. The
+     * body spans position to limit of {@code body}; the array goes back to the
+     * {@link BufferPool} when this returns, so neither {@code body} nor its array may be kept.
+     * An exception thrown here fails the request. The following {@link #onHTTPRequestSuccess}
+     * gets a null body and the response is not stored in the cache.
+     */
+    void onHTTPRequestBuffer(Request request, Response response, ByteBuffer body) throws IOException;
+}
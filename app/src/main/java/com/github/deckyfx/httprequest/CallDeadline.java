@@ -0,0 +1,72 @@
+package com.github.deckyfx.httprequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import okhttp3.Call;
+
+/**
+ * End-to-end deadline of one {@link Request}, covering every attempt, redirect and hedge, and the
+ * time spent waiting in between. When it passes, every call registered so far is cancelled and
+ * the expiry callback runs, which also covers a request still waiting to be sent.
+ */
+final class CallDeadline {
+    private final long mDeadlineNanos;
+    private final ArrayList<Call> mCalls                = new ArrayList<Call>();
+    private final ScheduledFuture<?> mTimer;
+    private final Runnable mOnExpired;
+    private boolean mExpired                            = false;
+    private boolean mFinished                           = false;
+
+    CallDeadline(long timeoutMillis, Runnable onExpired) {
+        this.mDeadlineNanos = System.nanoTime() + timeoutMillis * 1000000L;
+        this.mOnExpired = onExpired;
+        this.mTimer = RequestTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, timeoutMillis);
+    }
+
+    long remainingMillis() {
+        return Math.max(0, (this.mDeadlineNanos - System.nanoTime()) / 1000000L);
+    }
+
+    synchronized boolean isExpired() {
+        return this.mExpired;
+    }
+
+    /** Tracks {@code call} so it is cancelled at the deadline, cancels it now if already past. */
+    void register(Call call) {
+        synchronized (this) {
+            if (!this.mExpired) {
+                if (!this.mFinished) this.mCalls.add(call);
+                return;
+            }
+        }
+        call.cancel();
+    }
+
+    /** The request delivered its outcome, nothing left to cancel. */
+    synchronized void finish() {
+        this.mFinished = true;
+        this.mCalls.clear();
+        this.mTimer.cancel(false);
+    }
+
+    private void expire() {
+        List<Call> calls;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mExpired = true;
+            calls = new ArrayList<Call>(this.mCalls);
+            this.mCalls.clear();
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+        this.mOnExpired.run();
+    }
+}
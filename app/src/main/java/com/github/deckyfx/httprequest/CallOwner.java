@@ -0,0 +1,10 @@
+package com.github.deckyfx.httprequest;
+
+import okhttp3.Call;
+
+/** Something that owns the OkHttp calls made for it and cancels them when it is cancelled. */
+interface CallOwner {
+    void attachCall(Call call);
+
+    boolean isCanceled();
+}
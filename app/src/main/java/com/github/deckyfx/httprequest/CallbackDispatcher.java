@@ -0,0 +1,300 @@
+package com.github.deckyfx.httprequest;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.RequiresApi;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers {@link RequestListener} callbacks. Background callbacks run on a shared, bounded
+ * thread pool, main thread callbacks are posted to a single reusable {@link Handler}. Callbacks
+ * of one {@link Request} always run in the order they were posted.
+ *
+ * <p>In frame aligned mode main thread callbacks are collected and run together once per frame,
+ * so a screen firing many requests gets one batch of callbacks per frame instead of a message
+ * and a layout pass for each of them.
+ *
+ * <p>When the pool's queue is full the posting thread waits for room, which slows the OkHttp
+ * threads down instead of growing the queue. The main thread, the shared timer thread and the
+ * pool's own threads never wait, they run the callback themselves: the first two to avoid
+ * freezing the UI or every pending timeout, the last because a pool thread waiting for its own
+ * pool could deadlock. After {@link #shutdown()} callbacks run on the posting thread.
+ */
+public class CallbackDispatcher {
+    public static final int DEFAULT_THREADS                     = 2;
+    public static final int DEFAULT_QUEUE_SIZE                  = 256;
+
+    private static volatile CallbackDispatcher sDefault;
+
+    private final ThreadPoolExecutor mExecutor;
+    private volatile Handler mMainHandler;
+    private volatile boolean mFrameAligned                      = false;
+    private final ArrayList<Runnable> mFrameQueue               = new ArrayList<Runnable>();
+    private boolean mFrameScheduled                             = false;
+    private Object mFrameCallback;
+
+    private final AtomicInteger mPending                        = new AtomicInteger();
+    private final AtomicLong mDispatched                        = new AtomicLong();
+    private final AtomicLong mTotalLatencyNanos                 = new AtomicLong();
+    private final AtomicLong mMaxLatencyNanos                   = new AtomicLong();
+    private final AtomicLong mFrames                            = new AtomicLong();
+
+    public CallbackDispatcher() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    public CallbackDispatcher(int threads, int queueSize) {
+        if (threads <= 0) throw new IllegalArgumentException("threads <= 0");
+        if (queueSize <= 0) throw new IllegalArgumentException("queueSize <= 0");
+        this.mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new CallbackThread(runnable, "HTTPRequest Callback #" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new WaitPolicy());
+        this.mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static CallbackDispatcher getDefault() {
+        if (sDefault == null) {
+            synchronized (CallbackDispatcher.class) {
+                if (sDefault == null) {
+                    sDefault = new CallbackDispatcher();
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * Returns an executor that runs its tasks one at a time, in submission order, on the shared
+     * pool. Each request owns one of these so its callbacks are never reordered.
+     */
+    public Executor newSerialExecutor() {
+        return new SerialExecutor();
+    }
+
+    /** Batches main thread callbacks and runs them on the next frame, see the class comment. */
+    public CallbackDispatcher setFrameAligned(boolean frameAligned) {
+        this.mFrameAligned = frameAligned;
+        return this;
+    }
+
+    public boolean isFrameAligned() {
+        return this.mFrameAligned;
+    }
+
+    public void postMain(Runnable task) {
+        if (!this.mFrameAligned) {
+            this.mainHandler().post(this.measure(task));
+            return;
+        }
+        boolean schedule;
+        synchronized (this.mFrameQueue) {
+            this.mFrameQueue.add(this.measure(task));
+            schedule = !this.mFrameScheduled;
+            this.mFrameScheduled = true;
+        }
+        if (!schedule) return;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            this.scheduleFrame();
+        } else {
+            this.mainHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleFrame();
+                }
+            });
+        }
+    }
+
+    /** Must run on the main thread, Choreographer is per looper. */
+    private void scheduleFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (this.mFrameCallback == null) {
+                this.mFrameCallback = new FrameFlusher();
+            }
+            ((FrameFlusher) this.mFrameCallback).post();
+        } else {
+            this.flushFrame();
+        }
+    }
+
+    private void flushFrame() {
+        ArrayList<Runnable> batch;
+        synchronized (this.mFrameQueue) {
+            batch = new ArrayList<Runnable>(this.mFrameQueue);
+            this.mFrameQueue.clear();
+            this.mFrameScheduled = false;
+        }
+        this.mFrames.incrementAndGet();
+        for (Runnable task : batch) {
+            task.run();
+        }
+    }
+
+    public void execute(Runnable task) {
+        this.mExecutor.execute(this.measure(task));
+    }
+
+    private Handler mainHandler() {
+        if (this.mMainHandler == null) {
+            synchronized (this) {
+                if (this.mMainHandler == null) {
+                    this.mMainHandler = new Handler(Looper.getMainLooper());
+                }
+            }
+        }
+        return this.mMainHandler;
+    }
+
+    private Runnable measure(final Runnable task) {
+        final long postedNanos = System.nanoTime();
+        this.mPending.incrementAndGet();
+        return new Runnable() {
+            @Override
+            public void run() {
+                mPending.decrementAndGet();
+                recordLatency(System.nanoTime() - postedNanos);
+                task.run();
+            }
+        };
+    }
+
+    private void recordLatency(long latencyNanos) {
+        this.mDispatched.incrementAndGet();
+        this.mTotalLatencyNanos.addAndGet(latencyNanos);
+        long max = this.mMaxLatencyNanos.get();
+        while (latencyNanos > max && !this.mMaxLatencyNanos.compareAndSet(max, latencyNanos)) {
+            max = this.mMaxLatencyNanos.get();
+        }
+    }
+
+    /** Number of callbacks posted but not started yet, on the pool and on the main thread. */
+    public int getQueueDepth() {
+        return this.mPending.get();
+    }
+
+    public long getDispatchedCount() {
+        return this.mDispatched.get();
+    }
+
+    /** Average time between posting a callback and running it. */
+    public double getAverageLatencyMillis() {
+        long count = this.mDispatched.get();
+        if (count == 0) return 0;
+        return this.mTotalLatencyNanos.get() / (double) count / 1000000d;
+    }
+
+    public double getMaxLatencyMillis() {
+        return this.mMaxLatencyNanos.get() / 1000000d;
+    }
+
+    /** Number of frame aligned batches run on the main thread. */
+    public long getFrameCount() {
+        return this.mFrames.get();
+    }
+
+    public void resetStats() {
+        this.mFrames.set(0);
+        this.mDispatched.set(0);
+        this.mTotalLatencyNanos.set(0);
+        this.mMaxLatencyNanos.set(0);
+    }
+
+    public void shutdown() {
+        this.mExecutor.shutdown();
+    }
+
+    /** Kept out of the outer class so Choreographer is only touched on API 16 and up. */
+    @RequiresApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class FrameFlusher implements Choreographer.FrameCallback {
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flushFrame();
+        }
+    }
+
+    private static final class CallbackThread extends Thread {
+        CallbackThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    /** Waits for room in the queue, or runs the task on the caller where waiting is unsafe. */
+    private static final class WaitPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown() || Thread.currentThread() instanceof CallbackThread
+                    || RequestTimer.isTimerThread() || Looper.myLooper() == Looper.getMainLooper()) {
+                task.run();
+                return;
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.run();
+                return;
+            }
+            // The queue was filled behind the executor's back, make sure a thread takes it
+            executor.prestartCoreThread();
+        }
+    }
+
+    private final class SerialExecutor implements Executor {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+        private Runnable mActive;
+
+        @Override
+        public void execute(final Runnable task) {
+            Runnable next = null;
+            synchronized (this) {
+                this.mTasks.offer(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            scheduleNext();
+                        }
+                    }
+                });
+                if (this.mActive == null) {
+                    next = this.mActive = this.mTasks.poll();
+                }
+            }
+            // Submitted outside the lock, the pool may make the caller wait for room
+            if (next != null) CallbackDispatcher.this.execute(next);
+        }
+
+        private void scheduleNext() {
+            Runnable next;
+            synchronized (this) {
+                next = this.mActive = this.mTasks.poll();
+            }
+            if (next != null) CallbackDispatcher.this.execute(next);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.github.deckyfx.httprequest;
+
+import com.github.deckyfx.httprequest.dao.UploadSession;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Uploads a file in parts, several at a time. Every part is a PUT of its bytes to the upload url
+ * with an {@code Upload-Id} header naming the upload and a {@code Content-Range} placing the part
+ * in the file. Once all parts are stored, a POST with {@code Upload-Id} and
+ * {@code Upload-Complete: <part count>} asks the server to assemble the file; a 2xx answer is
+ * what the listener receives. A 5xx, 408 or 429 answer fails the upload but keeps its parts, so
+ * the next run only commits again. Finished parts are recorded in the request cache database, so
+ * after a cancel, a failure or a process restart the same url and file continue where they
+ * stopped, as long as the file was not modified.
+ */
+public class ChunkedUpload {
+    public static final int DEFAULT_PART_SIZE                   = 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY                 = 3;
+    public static final int DEFAULT_MAX_ATTEMPTS                = 3;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS         = 1000;
+
+    public static final String HEADER_UPLOAD_ID                 = "Upload-Id";
+    public static final String HEADER_UPLOAD_COMPLETE           = "Upload-Complete";
+
+    private static final MediaType OCTET_STREAM                 = MediaType.parse("application/octet-stream");
+
+    public interface Listener {
+        void onUploadComplete(ChunkedUpload upload, Response response, String body);
+        void onUploadFailure(ChunkedUpload upload, IOException error);
+    }
+
+    private final OkHttpClient mClient;
+    private final HttpUrl mUrl;
+    private final File mFile;
+    private final int mConcurrency;
+    private final DBHelper mDB;
+    private final CallbackDispatcher mDispatcher;
+    private final Listener mListener;
+
+    private final ArrayDeque<Integer> mPending                  = new ArrayDeque<Integer>();
+    private final List<Call> mCalls                             = new ArrayList<Call>();
+    private UploadSession mSession;
+    private String mUploadId;
+    private long mLength;
+    private int mPartSize;
+    private int mPartCount;
+    private byte[] mParts;
+    private int[] mAttempts;
+    private int mRemainingParts                                 = 0;
+    private int mRunning                                        = 0;
+    private long mUploadedBytes                                 = 0;
+    private boolean mFinished                                   = false;
+
+    ChunkedUpload(OkHttpClient client, HttpUrl url, File file, int partSize, int concurrency, DBHelper db, CallbackDispatcher dispatcher, Listener listener) {
+        if (partSize <= 0) throw new IllegalArgumentException("partSize <= 0");
+        if (concurrency <= 0) throw new IllegalArgumentException("concurrency <= 0");
+        this.mClient = client;
+        this.mUrl = url;
+        this.mFile = file;
+        this.mPartSize = partSize;
+        this.mConcurrency = concurrency;
+        this.mDB = db;
+        this.mDispatcher = dispatcher;
+        this.mListener = listener;
+    }
+
+    public HttpUrl getUrl() {
+        return this.mUrl;
+    }
+
+    public File getFile() {
+        return this.mFile;
+    }
+
+    public synchronized String getUploadId() {
+        return this.mUploadId;
+    }
+
+    public synchronized int getPartCount() {
+        return this.mPartCount;
+    }
+
+    /** Bytes of the parts the server has confirmed, including those of an earlier run. */
+    public synchronized long getUploadedBytes() {
+        return this.mUploadedBytes;
+    }
+
+    /** Stops the upload without calling the listener. Finished parts stay recorded for a resume. */
+    public void cancel() {
+        List<Call> calls;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mFinished = true;
+            calls = new ArrayList<Call>(this.mCalls);
+            this.mCalls.clear();
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    ChunkedUpload start() {
+        if (!this.mFile.isFile()) {
+            this.deliverFailure(new IOException("Can not read " + this.mFile));
+            return this;
+        }
+        synchronized (this) {
+            this.mLength = this.mFile.length();
+            this.restoreSession();
+            for (int i = 0; i < this.mPartCount; i++) {
+                if (this.isDone(i)) {
+                    this.mUploadedBytes += this.partLength(i);
+                } else {
+                    this.mPending.addLast(i);
+                }
+            }
+            this.mRemainingParts = this.mPending.size();
+        }
+        if (this.mRemainingParts == 0) {
+            this.commit();
+        } else {
+            this.startParts();
+        }
+        return this;
+    }
+
+    /** Picks up the recorded session for this url and file, or records a new one. */
+    private void restoreSession() {
+        String url = this.mUrl.toString();
+        String path = this.mFile.getAbsolutePath();
+        long modified = this.mFile.lastModified();
+        UploadSession session = this.mDB != null ? this.mDB.loadUploadSession(url, path) : null;
+        if (session != null && (session.getLength() == null || session.getLength() != this.mLength
+                || session.getModified() == null || session.getModified() != modified
+                || session.getPartSize() == null || session.getParts() == null)) {
+            // The file changed since, its recorded parts are worthless
+            this.mDB.deleteUploadSession(session);
+            session = null;
+        }
+        if (session != null) {
+            this.mPartSize = session.getPartSize();
+        }
+        this.mPartCount = (int) ((this.mLength + this.mPartSize - 1) / this.mPartSize);
+        if (session == null) {
+            String uploadId = UUID.randomUUID().toString();
+            if (this.mDB != null) {
+                session = this.mDB.saveUploadSession(uploadId, url, path, this.mLength, modified, this.mPartSize, this.mPartCount);
+            } else {
+                session = new UploadSession(null, uploadId, url, path, this.mLength, modified, this.mPartSize, new byte[(this.mPartCount + 7) / 8], null);
+            }
+        }
+        this.mSession = session;
+        this.mUploadId = session.getUploadId();
+        this.mParts = session.getParts();
+        this.mAttempts = new int[this.mPartCount];
+    }
+
+    private boolean isDone(int part) {
+        return (this.mParts[part / 8] & (1 << (part % 8))) != 0;
+    }
+
+    private long partLength(int part) {
+        return Math.min(this.mPartSize, this.mLength - (long) part * this.mPartSize);
+    }
+
+    private void startParts() {
+        List<Integer> toStart = new ArrayList<Integer>();
+        synchronized (this) {
+            while (!this.mFinished && this.mRunning < this.mConcurrency && !this.mPending.isEmpty()) {
+                toStart.add(this.mPending.pollFirst());
+                this.mRunning++;
+            }
+        }
+        for (Integer part : toStart) {
+            this.startPart(part);
+        }
+    }
+
+    private void startPart(final int part) {
+        long offset = (long) part * this.mPartSize;
+        long length = this.partLength(part);
+        okhttp3.Request request = new okhttp3.Request.Builder()
+                .url(this.mUrl)
+                .header(HEADER_UPLOAD_ID, this.mUploadId)
+                .header("Content-Range", "bytes " + offset + "-" + (offset + length - 1) + "/" + this.mLength)
+                .put(new FilePartBody(this.mFile, offset, length))
+                .build();
+        Call call = this.mClient.newCall(request);
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mCalls.add(call);
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                retry(call, part, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    int code = response.code();
+                    if (response.isSuccessful()) {
+                        partDone(call, part);
+                    } else if (code >= 500 || code == 408 || code == 429) {
+                        retry(call, part, new IOException("Part " + part + " failed with " + code + " " + response.message()));
+                    } else {
+                        // The server does not know or no longer wants this upload, start over next time
+                        discardSession();
+                        fail(new IOException("Part " + part + " rejected with " + code + " " + response.message()));
+                    }
+                } finally {
+                    Util.closeQuietly(response);
+                }
+            }
+        });
+    }
+
+    private void partDone(Call call, int part) {
+        boolean complete;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mCalls.remove(call);
+            this.mRunning--;
+            this.mParts[part / 8] |= (byte) (1 << (part % 8));
+            this.mUploadedBytes += this.partLength(part);
+            if (this.mDB != null) {
+                this.mSession.setParts(this.mParts);
+                this.mDB.updateUploadSession(this.mSession);
+            }
+            complete = --this.mRemainingParts == 0;
+        }
+        if (complete) {
+            this.commit();
+        } else {
+            this.startParts();
+        }
+    }
+
+    private void retry(Call call, final int part, IOException e) {
+        long delay;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mCalls.remove(call);
+            this.mRunning--;
+            if (++this.mAttempts[part] >= DEFAULT_MAX_ATTEMPTS) {
+                delay = -1;
+            } else {
+                delay = DEFAULT_RETRY_DELAY_MILLIS * this.mAttempts[part];
+            }
+        }
+        if (delay < 0) {
+            this.fail(e);
+            return;
+        }
+        RequestTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ChunkedUpload.this) {
+                    mPending.addFirst(part);
+                }
+                startParts();
+            }
+        }, delay);
+    }
+
+    private void commit() {
+        okhttp3.Request request = new okhttp3.Request.Builder()
+                .url(this.mUrl)
+                .header(HEADER_UPLOAD_ID, this.mUploadId)
+                .header(HEADER_UPLOAD_COMPLETE, String.valueOf(this.mPartCount))
+                .post(RequestBody.create(null, new byte[0]))
+                .build();
+        Call call = this.mClient.newCall(request);
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mCalls.add(call);
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                fail(e);
+            }
+
+            @Override
+            public void onResponse(Call call, final Response response) throws IOException {
+                final String body;
+                try {
+                    body = response.body().string();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                } finally {
+                    Util.closeQuietly(response);
+                }
+                int code = response.code();
+                if (!response.isSuccessful()) {
+                    if (code < 500 && code != 408 && code != 429) {
+                        // The server refused to assemble this upload id, a retry must start a new one
+                        discardSession();
+                    }
+                    // Otherwise the parts stay recorded and the next run only commits again
+                    fail(new IOException("Commit failed with " + code + " " + response.message()));
+                    return;
+                }
+                synchronized (ChunkedUpload.this) {
+                    if (mFinished) return;
+                    mFinished = true;
+                    mCalls.clear();
+                }
+                discardSession();
+                mDispatcher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onUploadComplete(ChunkedUpload.this, response, body);
+                    }
+                });
+            }
+        });
+    }
+
+    private synchronized void discardSession() {
+        if (this.mDB != null && this.mSession != null && this.mSession.getId() != null) {
+            this.mDB.deleteUploadSession(this.mSession);
+        }
+    }
+
+    private void fail(IOException e) {
+        List<Call> calls;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mFinished = true;
+            calls = new ArrayList<Call>(this.mCalls);
+            this.mCalls.clear();
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+        this.deliverFailure(e);
+    }
+
+    private void deliverFailure(final IOException e) {
+        this.mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onUploadFailure(ChunkedUpload.this, e);
+            }
+        });
+    }
+
+    /** One part of a file, read from disk each time it is written so OkHttp can retry it. */
+    private static final class FilePartBody extends RequestBody {
+        private final File mFile;
+        private final long mOffset;
+        private final long mLength;
+
+        FilePartBody(File file, long offset, long length) {
+            this.mFile = file;
+            this.mOffset = offset;
+            this.mLength = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return this.mLength;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            FileInputStream input = new FileInputStream(this.mFile);
+            Source source = null;
+            try {
+                input.getChannel().position(this.mOffset);
+                source = Okio.source(input);
+                sink.write(source, this.mLength);
+            } finally {
+                Util.closeQuietly(source);
+                Util.closeQuietly(input);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * Per-host circuit breaker. When the share of failed calls among the last {@code windowSize}
+ * calls to a host reaches {@code failureRatePercent}, the circuit opens and calls to that host
+ * fail fast for {@code openMillis}. After that a few probe calls are let through; if they all
+ * succeed the circuit closes again, any failure opens it for another period.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static final int DEFAULT_FAILURE_RATE_PERCENT        = 50;
+    public static final int DEFAULT_WINDOW_SIZE                 = 20;
+    public static final int DEFAULT_MIN_CALLS                   = 10;
+    public static final long DEFAULT_OPEN_MILLIS                = 30000;
+    public static final int DEFAULT_HALF_OPEN_PROBES            = 2;
+
+    private final ConcurrentHashMap<String, HostCircuit> mHosts = new ConcurrentHashMap<String, HostCircuit>();
+    private final int mFailureRatePercent;
+    private final int mWindowSize;
+    private final int mMinCalls;
+    private final long mOpenMillis;
+    private final int mHalfOpenProbes;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_RATE_PERCENT, DEFAULT_WINDOW_SIZE, DEFAULT_MIN_CALLS, DEFAULT_OPEN_MILLIS, DEFAULT_HALF_OPEN_PROBES);
+    }
+
+    public CircuitBreaker(int failureRatePercent, int windowSize, int minCalls, long openMillis, int halfOpenProbes) {
+        if (failureRatePercent <= 0 || failureRatePercent > 100) throw new IllegalArgumentException("failureRatePercent not in (0, 100]");
+        if (windowSize <= 0) throw new IllegalArgumentException("windowSize <= 0");
+        if (minCalls <= 0 || minCalls > windowSize) throw new IllegalArgumentException("minCalls not in (0, windowSize]");
+        if (openMillis < 0) throw new IllegalArgumentException("openMillis < 0");
+        if (halfOpenProbes <= 0) throw new IllegalArgumentException("halfOpenProbes <= 0");
+        this.mFailureRatePercent = failureRatePercent;
+        this.mWindowSize = windowSize;
+        this.mMinCalls = minCalls;
+        this.mOpenMillis = openMillis;
+        this.mHalfOpenProbes = halfOpenProbes;
+    }
+
+    /** Returns false if a call to {@code host} must fail fast. A true answer must be tracked. */
+    boolean allow(String host) {
+        return this.circuit(host).allow();
+    }
+
+    /** Gives back what {@link #allow} took for a call that was not made after all. */
+    void release(String host) {
+        this.circuit(host).release();
+    }
+
+    /** Wraps {@code delegate} so the call's outcome is recorded against {@code host}. */
+    Callback track(final String host, final Callback delegate) {
+        final HostCircuit circuit = this.circuit(host);
+        return new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (call.isCanceled()) {
+                    circuit.release();
+                } else {
+                    circuit.record(false);
+                }
+                delegate.onFailure(call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                circuit.record(response.code() < 500);
+                delegate.onResponse(call, response);
+            }
+        };
+    }
+
+    public State getState(String host) {
+        HostCircuit circuit = this.mHosts.get(host);
+        return circuit != null ? circuit.state() : State.CLOSED;
+    }
+
+    /** Snapshot of every host whose circuit is not closed. */
+    public Map<String, State> getTrippedHosts() {
+        HashMap<String, State> result = new HashMap<String, State>();
+        for (Map.Entry<String, HostCircuit> entry : this.mHosts.entrySet()) {
+            State state = entry.getValue().state();
+            if (state != State.CLOSED) result.put(entry.getKey(), state);
+        }
+        return result;
+    }
+
+    public void reset(String host) {
+        this.mHosts.remove(host);
+    }
+
+    private HostCircuit circuit(String host) {
+        HostCircuit circuit = this.mHosts.get(host);
+        if (circuit == null) {
+            HostCircuit created = new HostCircuit();
+            circuit = this.mHosts.putIfAbsent(host, created);
+            if (circuit == null) circuit = created;
+        }
+        return circuit;
+    }
+
+    private final class HostCircuit {
+        private final boolean[] mOutcomes = new boolean[mWindowSize];
+        private int mCount = 0;
+        private int mNext = 0;
+        private int mFailures = 0;
+        private State mState = State.CLOSED;
+        private long mOpenedAtNanos;
+        private int mProbesInFlight = 0;
+        private int mProbesSucceeded = 0;
+
+        synchronized State state() {
+            this.checkOpenExpired();
+            return this.mState;
+        }
+
+        synchronized boolean allow() {
+            this.checkOpenExpired();
+            switch (this.mState) {
+                case OPEN:
+                    return false;
+                case HALF_OPEN:
+                    if (this.mProbesInFlight + this.mProbesSucceeded >= mHalfOpenProbes) return false;
+                    this.mProbesInFlight++;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        synchronized void release() {
+            if (this.mState == State.HALF_OPEN && this.mProbesInFlight > 0) {
+                this.mProbesInFlight--;
+            }
+        }
+
+        synchronized void record(boolean success) {
+            if (this.mState == State.HALF_OPEN) {
+                if (this.mProbesInFlight > 0) this.mProbesInFlight--;
+                if (!success) {
+                    this.open();
+                } else if (++this.mProbesSucceeded >= mHalfOpenProbes) {
+                    this.close();
+                }
+                return;
+            }
+            if (this.mState == State.OPEN) {
+                // A call admitted before the circuit opened, it says nothing new
+                return;
+            }
+            if (this.mCount == mWindowSize && !this.mOutcomes[this.mNext]) {
+                this.mFailures--;
+            }
+            this.mOutcomes[this.mNext] = success;
+            this.mNext = (this.mNext + 1) % mWindowSize;
+            this.mCount = Math.min(this.mCount + 1, mWindowSize);
+            if (!success) this.mFailures++;
+            if (this.mCount >= mMinCalls && this.mFailures * 100 >= this.mCount * mFailureRatePercent) {
+                this.open();
+            }
+        }
+
+        private void checkOpenExpired() {
+            if (this.mState == State.OPEN && System.nanoTime() - this.mOpenedAtNanos >= mOpenMillis * 1000000L) {
+                this.mState = State.HALF_OPEN;
+                this.mProbesInFlight = 0;
+                this.mProbesSucceeded = 0;
+            }
+        }
+
+        private void open() {
+            this.mState = State.OPEN;
+            this.mOpenedAtNanos = System.nanoTime();
+        }
+
+        private void close() {
+            this.mState = State.CLOSED;
+            this.mCount = 0;
+            this.mNext = 0;
+            this.mFailures = 0;
+        }
+    }
+}
@@ -4,8 +4,12 @@ import android.content.Context;
 
 import com.github.deckyfx.greendao.AbstractDaoMaster;
 import com.github.deckyfx.greendao.Property;
+import com.github.deckyfx.httprequest.dao.DaoMaster;
+import com.github.deckyfx.httprequest.dao.OutboxRequest;
 import com.github.deckyfx.httprequest.dao.RequestCache;
+import com.github.deckyfx.httprequest.dao.UploadSession;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -23,14 +27,29 @@ public class DBHelper extends com.github.deckyfx.dbhelper.DBHelper{
         public static final String PROPERTY_Response    = "Response";
     }
 
+    private static final class OUTBOX_REQUEST {
+        public static final String DAO_NAME             = "OutboxRequest";
+        public static final String PROPERTY_ID          = "Id";
+    }
+
+    private static final class UPLOAD_SESSION {
+        public static final String DAO_NAME             = "UploadSession";
+        public static final String PROPERTY_URL         = "Url";
+        public static final String PROPERTY_PATH        = "Path";
+    }
+
     public Property RequestCacheURLProperty,
             RequestCacheMethodProperty,
             RequestCacheParamProperty,
             RequestCacheHeaderProperty,
-            RequestCacheIDProperty;
+            RequestCacheIDProperty,
+            OutboxRequestIDProperty,
+            UploadSessionURLProperty,
+            UploadSessionPathProperty;
 
     public DBHelper(Context context, Class<? extends AbstractDaoMaster> daoMasterClass, String dbName) {
-        super(context, daoMasterClass, dbName);
+        // Migrated first, the generated helper the base class opens with drops every table on upgrade
+        super(context, daoMasterClass, daoMasterClass == DaoMaster.class ? RequestCacheOpenHelper.upgrade(context, dbName) : dbName);
 
 
         this.RequestCacheURLProperty        = this.getEntity(REQUEST_CACHE.DAO_NAME).getProperty(REQUEST_CACHE.PROPERTY_URL);
@@ -38,6 +57,9 @@ public class DBHelper extends com.github.deckyfx.dbhelper.DBHelper{
         this.RequestCacheParamProperty      = this.getEntity(REQUEST_CACHE.DAO_NAME).getProperty(REQUEST_CACHE.PROPERTY_PARAM);
         this.RequestCacheHeaderProperty     = this.getEntity(REQUEST_CACHE.DAO_NAME).getProperty(REQUEST_CACHE.PROPERTY_HEADER);
         this.RequestCacheIDProperty         = this.getEntity(REQUEST_CACHE.DAO_NAME).getProperty(REQUEST_CACHE.PROPERTY_ID);
+        this.OutboxRequestIDProperty        = this.getEntity(OUTBOX_REQUEST.DAO_NAME).getProperty(OUTBOX_REQUEST.PROPERTY_ID);
+        this.UploadSessionURLProperty       = this.getEntity(UPLOAD_SESSION.DAO_NAME).getProperty(UPLOAD_SESSION.PROPERTY_URL);
+        this.UploadSessionPathProperty      = this.getEntity(UPLOAD_SESSION.DAO_NAME).getProperty(UPLOAD_SESSION.PROPERTY_PATH);
     }
 
     public void saveResponseToCache(String url, String method, String param, String responseBody){
@@ -76,4 +98,64 @@ public class DBHelper extends com.github.deckyfx.dbhelper.DBHelper{
         }
         return requestcache;
     }
+
+    public OutboxRequest saveToOutbox(String url, String method, String header, byte[] body, String contentType){
+        OutboxRequest outboxrequest = new OutboxRequest();
+        outboxrequest.setUrl(url);
+        outboxrequest.setMethod(method);
+        outboxrequest.setHeader(header);
+        outboxrequest.setBody(body);
+        outboxrequest.setContentType(contentType);
+        outboxrequest.setAttempts(0);
+        outboxrequest.setCreatedAt(new Date());
+        this.getEntity(OUTBOX_REQUEST.DAO_NAME).insertOrReplace(outboxrequest);
+        return outboxrequest;
+    }
+
+    /** Oldest {@code limit} requests of the outbox, in the order they were saved. */
+    public List<OutboxRequest> loadFromOutbox(int limit){
+        List outboxList = this.getEntity(OUTBOX_REQUEST.DAO_NAME)
+                .queryBuilder()
+                .orderAsc(this.OutboxRequestIDProperty).limit(limit).list();
+        List<OutboxRequest> outbox = new ArrayList<OutboxRequest>(outboxList.size());
+        for (Object entry : outboxList) {
+            outbox.add((OutboxRequest) entry);
+        }
+        return outbox;
+    }
+
+    public long countOutbox(){
+        return this.getEntity(OUTBOX_REQUEST.DAO_NAME).queryBuilder().count();
+    }
+
+    /** The unfinished chunked upload of {@code path} to {@code url}, or null. */
+    public UploadSession loadUploadSession(String url, String path){
+        List sessionList = this.getEntity(UPLOAD_SESSION.DAO_NAME)
+                .queryBuilder()
+                .where(this.UploadSessionURLProperty.eq(url), this.UploadSessionPathProperty.eq(path)).limit(1)
+                .list();
+        return sessionList.size() > 0 ? (UploadSession) sessionList.get(0) : null;
+    }
+
+    public UploadSession saveUploadSession(String uploadId, String url, String path, long length, long modified, int partSize, int partCount){
+        UploadSession uploadsession = new UploadSession();
+        uploadsession.setUploadId(uploadId);
+        uploadsession.setUrl(url);
+        uploadsession.setPath(path);
+        uploadsession.setLength(length);
+        uploadsession.setModified(modified);
+        uploadsession.setPartSize(partSize);
+        uploadsession.setParts(new byte[(partCount + 7) / 8]);
+        uploadsession.setCreatedAt(new Date());
+        this.getEntity(UPLOAD_SESSION.DAO_NAME).insertOrReplace(uploadsession);
+        return uploadsession;
+    }
+
+    public void updateUploadSession(UploadSession uploadsession){
+        this.getEntity(UPLOAD_SESSION.DAO_NAME).update(uploadsession);
+    }
+
+    public void deleteUploadSession(UploadSession uploadsession){
+        this.getEntity(UPLOAD_SESSION.DAO_NAME).delete(uploadsession);
+    }
 }
@@ -0,0 +1,17 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.File;
+
+import okhttp3.Response;
+
+/**
+ * A {@link RequestListener} for requests built with {@link Request.Builder#download(File)}.
+ */
+public interface DownloadListener extends RequestListener {
+    /**
+     * Called after {@link #onHTTPRequestSuccess}, whose body is null for downloads, once
+     * {@code file} is complete. {@code checksum} is the lowercase hex checksum, null if none was
+     * requested.
+     */
+    void onHTTPRequestDownloaded(Request request, Response response, File file, String checksum);
+}
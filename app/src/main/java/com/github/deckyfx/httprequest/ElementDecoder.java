@@ -0,0 +1,19 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import okio.BufferedSource;
+
+/**
+ * Decodes a response body made of many elements, handing each one over as soon as it is parsed.
+ * Used by {@link Request.Builder#streamElements(ElementDecoder)}.
+ */
+public interface ElementDecoder<T> {
+    interface Sink<T> {
+        void onElement(T element) throws IOException;
+    }
+
+    /** Reads {@code source} on the OkHttp thread, passing each element to {@code sink} in order. */
+    void decode(BufferedSource source, Charset charset, Sink<T> sink) throws IOException;
+}
@@ -0,0 +1,17 @@
+package com.github.deckyfx.httprequest;
+
+import java.util.List;
+
+/**
+ * A {@link RequestListener} for requests built with
+ * {@link Request.Builder#streamElements(ElementDecoder)}, it receives the elements in batches
+ * while the body is still downloading.
+ */
+public interface ElementListener<T> extends RequestListener {
+    /**
+     * Called in order, on the same thread as the other callbacks and before
+     * {@link #onHTTPRequestFinish}. The following {@link #onHTTPRequestSuccess} gets a null body
+     * and the response is not stored in the cache.
+     */
+    void onHTTPRequestElements(Request request, List<T> elements);
+}
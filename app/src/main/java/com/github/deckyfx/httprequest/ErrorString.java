@@ -13,4 +13,8 @@ public final class ErrorString {
     public static final String ERROR_LOADING_DATA           = "Error loading data";
     public static final String REQUEST_TIMEOUT              = "Request timeout";
     public static final String CANNOT_CONNECT_TO_INTERNET   = "Can not connect to server";
+    public static final String REQUEST_DROPPED              = "Request dropped, too many pending requests";
+    public static final String CIRCUIT_OPEN                 = "Server is unavailable, try again later";
+    public static final String RATE_LIMITED                 = "Request dropped, rate limit exceeded";
+    public static final String RESPONSE_TOO_LARGE           = "Response too large to buffer";
 }
@@ -0,0 +1,275 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+import okio.BufferedSource;
+
+/**
+ * Server-Sent Events client. Keeps one {@code text/event-stream} call open and hands every event
+ * to the listener as soon as it is parsed. When the stream ends or breaks it reconnects with
+ * {@code Last-Event-ID}, after the server's {@code retry} time doubled for each failure in a
+ * row, with jitter. A 204, a client error or a response that is not an event stream ends it
+ * for good.
+ */
+public class EventSource {
+    public static final long DEFAULT_RETRY_MILLIS               = 3000;
+    public static final long MIN_RETRY_MILLIS                   = 500;
+    public static final long MAX_RETRY_MILLIS                   = 60000;
+
+    private static final int MAX_BACKOFF_SHIFT                  = 5;
+
+    /** Callbacks run one at a time, in order, on the client's callback dispatcher. */
+    public interface Listener {
+        void onEventSourceOpen(EventSource source, Response response);
+        /** {@code type} is "message" unless the event named one, {@code id} may be null. */
+        void onEventSourceEvent(EventSource source, String id, String type, String data);
+        /** The connection was lost; {@code reconnectMillis} is -1 if it will not be retried. */
+        void onEventSourceError(EventSource source, IOException error, long reconnectMillis);
+    }
+
+    private final OkHttpClient mClient;
+    private final HttpUrl mUrl;
+    private final Headers mHeaders;
+    private final Executor mExecutor;
+    private final Listener mListener;
+    private final Random mRandom                                = new Random();
+
+    private Call mCall;
+    private ScheduledFuture<?> mReconnect;
+    private boolean mClosed                                     = false;
+    private volatile boolean mCanceled                          = false;
+    private String mLastEventId;
+    private long mRetryMillis                                   = DEFAULT_RETRY_MILLIS;
+    private int mFailures                                       = 0;
+
+    EventSource(OkHttpClient client, HttpUrl url, Headers headers, CallbackDispatcher dispatcher, Listener listener) {
+        // The stream stays quiet between events, it must not hit the client's read timeout
+        this.mClient = client.newBuilder().readTimeout(0, TimeUnit.MILLISECONDS).build();
+        this.mUrl = url;
+        this.mHeaders = headers != null ? headers : new Headers.Builder().build();
+        this.mExecutor = dispatcher.newSerialExecutor();
+        this.mListener = listener;
+    }
+
+    public HttpUrl getUrl() {
+        return this.mUrl;
+    }
+
+    /** Id of the last event received, sent as {@code Last-Event-ID} when reconnecting. */
+    public synchronized String getLastEventId() {
+        return this.mLastEventId;
+    }
+
+    public synchronized boolean isClosed() {
+        return this.mClosed;
+    }
+
+    /** Closes the stream and stops reconnecting, the listener is not called any more. */
+    public void close() {
+        Call call;
+        synchronized (this) {
+            if (this.mCanceled) return;
+            this.mClosed = true;
+            this.mCanceled = true;
+            call = this.mCall;
+            this.mCall = null;
+            if (this.mReconnect != null) this.mReconnect.cancel(false);
+        }
+        if (call != null) call.cancel();
+    }
+
+    EventSource connect() {
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
+                .url(this.mUrl)
+                .headers(this.mHeaders)
+                .header("Accept", "text/event-stream")
+                .header("Cache-Control", "no-cache");
+        Call call;
+        synchronized (this) {
+            if (this.mClosed) return this;
+            if (this.mLastEventId != null) builder.header("Last-Event-ID", this.mLastEventId);
+            call = this.mClient.newCall(builder.build());
+            this.mCall = call;
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                reconnect(e, 0);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    handleResponse(response);
+                } finally {
+                    Util.closeQuietly(response);
+                }
+            }
+        });
+        return this;
+    }
+
+    private void handleResponse(final Response response) {
+        int code = response.code();
+        if (code == 204) {
+            this.giveUp(new IOException("Server ended the event stream"));
+            return;
+        }
+        if (!response.isSuccessful()) {
+            IOException error = new IOException("Unexpected response " + code + " " + response.message());
+            if (code >= 500 || code == 408 || code == 429) {
+                this.reconnect(error, RetryPolicy.retryAfterMillis(response));
+            } else {
+                this.giveUp(error);
+            }
+            return;
+        }
+        MediaType type = response.body().contentType();
+        if (type == null || !type.type().equals("text") || !type.subtype().equals("event-stream")) {
+            this.giveUp(new IOException("Not an event stream: " + type));
+            return;
+        }
+        synchronized (this) {
+            this.mFailures = 0;
+        }
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onEventSourceOpen(EventSource.this, response);
+            }
+        });
+        try {
+            this.read(response.body().source());
+            this.reconnect(new EOFException("Event stream ended"), 0);
+        } catch (IOException e) {
+            this.reconnect(e, 0);
+        }
+    }
+
+    /** Parses the stream as the event-stream format, dispatching each event at its blank line. */
+    private void read(BufferedSource source) throws IOException {
+        StringBuilder data = new StringBuilder();
+        String type = null;
+        String id = this.getLastEventId();
+        boolean first = true;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (this.isClosed()) return;
+            if (first) {
+                first = false;
+                if (line.startsWith("\uFEFF")) line = line.substring(1);
+            }
+            if (line.length() == 0) {
+                synchronized (this) {
+                    this.mLastEventId = id;
+                }
+                if (data.length() > 0) {
+                    data.setLength(data.length() - 1);
+                    this.dispatch(id, type != null ? type : "message", data.toString());
+                }
+                data.setLength(0);
+                type = null;
+                continue;
+            }
+            if (line.charAt(0) == ':') {
+                // Comment, usually a keep-alive
+                continue;
+            }
+            int colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) value = value.substring(1);
+            if (field.equals("data")) {
+                data.append(value).append('\n');
+            } else if (field.equals("event")) {
+                type = value;
+            } else if (field.equals("id")) {
+                if (value.indexOf('\u0000') < 0) id = value;
+            } else if (field.equals("retry")) {
+                try {
+                    long retry = Long.parseLong(value);
+                    if (retry >= 0) {
+                        synchronized (this) {
+                            this.mRetryMillis = retry;
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    // Ignored, as the format requires
+                }
+            }
+        }
+    }
+
+    private void dispatch(final String id, final String type, final String data) {
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onEventSourceEvent(EventSource.this, id, type, data);
+            }
+        });
+    }
+
+    private void reconnect(final IOException error, long minDelayMillis) {
+        final long delay;
+        synchronized (this) {
+            if (this.mClosed) return;
+            this.mCall = null;
+            // Clamped first, a retry: of 0 would loop and a huge one would overflow the shift
+            long retry = Math.max(MIN_RETRY_MILLIS, Math.min(MAX_RETRY_MILLIS, this.mRetryMillis));
+            long backoff = Math.min(MAX_RETRY_MILLIS, retry << Math.min(this.mFailures, MAX_BACKOFF_SHIFT));
+            this.mFailures++;
+            // Half fixed, half random, so clients dropped together do not come back together. The
+            // random half goes on top of a Retry-After, never earlier than the server asked
+            long jitter = (long) (this.mRandom.nextDouble() * (backoff / 2 + 1));
+            delay = Math.max(backoff / 2, minDelayMillis) + jitter;
+            this.mReconnect = RequestTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    connect();
+                }
+            }, delay);
+        }
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onEventSourceError(EventSource.this, error, delay);
+            }
+        });
+    }
+
+    private void giveUp(final IOException error) {
+        synchronized (this) {
+            if (this.mClosed) return;
+            this.mClosed = true;
+            this.mCall = null;
+        }
+        this.deliver(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onEventSourceError(EventSource.this, error, -1);
+            }
+        });
+    }
+
+    private void deliver(final Runnable callback) {
+        this.mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mCanceled) callback.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,238 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import okhttp3.Response;
+import okhttp3.internal.Util;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * Streams a response body into a file. The body goes to {@code <file>.part} first and is moved
+ * into place once complete; an interrupted download resumes from the partial file with a
+ * {@code Range} request, guarded by {@code If-Range} so a changed resource starts over. The
+ * checksum is computed while writing, only a resumed prefix is ever read back.
+ */
+class FileDownload {
+    static final String CRC32 = "CRC32";
+
+    private final File mFile;
+    private final File mPartFile;
+    private final File mValidatorFile;
+    private final String mAlgorithm;
+    private final String mExpectedChecksum;
+
+    FileDownload(File file, String algorithm, String expectedChecksum) {
+        this.mFile = file;
+        this.mPartFile = new File(file.getPath() + ".part");
+        this.mValidatorFile = new File(file.getPath() + ".part.validator");
+        this.mAlgorithm = algorithm;
+        this.mExpectedChecksum = expectedChecksum;
+    }
+
+    File file() {
+        return this.mFile;
+    }
+
+    String algorithm() {
+        return this.mAlgorithm;
+    }
+
+    String expectedChecksum() {
+        return this.mExpectedChecksum;
+    }
+
+    /** Adds the resume headers to {@code request} when a partial download is on disk. */
+    okhttp3.Request prepare(okhttp3.Request request) {
+        long offset = this.mPartFile.length();
+        String validator = this.readValidator();
+        if (offset <= 0 || validator == null) {
+            return request;
+        }
+        return request.newBuilder()
+                .header("Range", "bytes=" + offset + "-")
+                .header("If-Range", validator)
+                .build();
+    }
+
+    /** Forgets the partial download, the next attempt starts from scratch. */
+    void discard() {
+        this.mPartFile.delete();
+        this.mValidatorFile.delete();
+    }
+
+    /**
+     * Writes the body of a 200 or 206 {@code response} and moves the file into place. Returns the
+     * lowercase hex checksum, or null when no algorithm was set.
+     */
+    String write(Response response) throws IOException {
+        long offset = 0;
+        if (response.code() == 206) {
+            offset = parseRangeStart(response.header("Content-Range"));
+            if (offset != this.mPartFile.length()) {
+                this.discard();
+                throw new IOException("Unexpected Content-Range " + response.header("Content-Range"));
+            }
+        }
+        this.writeValidator(response);
+        Checksum checksum = this.mAlgorithm != null ? new Checksum(this.mAlgorithm) : null;
+        if (checksum != null && offset > 0) {
+            checksum.update(this.mPartFile);
+        }
+        Sink sink = offset > 0 ? Okio.appendingSink(this.mPartFile) : Okio.sink(this.mPartFile);
+        if (checksum != null) {
+            sink = checksum.wrap(sink);
+        }
+        BufferedSource source = response.body().source();
+        BufferedSink out = Okio.buffer(sink);
+        try {
+            // Okio moves whole segments from the socket buffer to the file, nothing is copied
+            out.writeAll(source);
+        } finally {
+            Util.closeQuietly(out);
+            Util.closeQuietly(source);
+        }
+        String result = checksum != null ? checksum.hex() : null;
+        if (this.mExpectedChecksum != null && result != null && !this.mExpectedChecksum.equalsIgnoreCase(result)) {
+            this.discard();
+            throw new IOException("Checksum mismatch, expected " + this.mExpectedChecksum + " got " + result);
+        }
+        if (this.mFile.exists() && !this.mFile.delete()) {
+            throw new IOException("Can not replace " + this.mFile);
+        }
+        if (!this.mPartFile.renameTo(this.mFile)) {
+            throw new IOException("Can not move download to " + this.mFile);
+        }
+        this.mValidatorFile.delete();
+        return result;
+    }
+
+    private static long parseRangeStart(String contentRange) {
+        // bytes 100-199/200
+        if (contentRange == null || !contentRange.startsWith("bytes ")) return -1;
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String readValidator() {
+        if (!this.mValidatorFile.exists()) return null;
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(this.mValidatorFile));
+            String validator = source.readUtf8().trim();
+            return validator.length() > 0 ? validator : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            Util.closeQuietly(source);
+        }
+    }
+
+    private void writeValidator(Response response) throws IOException {
+        // If-Range only works with a strong ETag or a date
+        String validator = response.header("ETag");
+        if (validator == null || validator.startsWith("W/")) {
+            validator = response.header("Last-Modified");
+        }
+        if (validator == null) {
+            this.mValidatorFile.delete();
+            return;
+        }
+        BufferedSink sink = Okio.buffer(Okio.sink(this.mValidatorFile));
+        try {
+            sink.writeUtf8(validator);
+        } finally {
+            Util.closeQuietly(sink);
+        }
+    }
+
+    /** CRC32 or any {@link MessageDigest} algorithm, fed straight from Okio's segment arrays. */
+    static final class Checksum extends OutputStream {
+        private final CRC32 mCrc;
+        private final MessageDigest mDigest;
+
+        Checksum(String algorithm) {
+            if (algorithm.toUpperCase(Locale.US).equals(CRC32)) {
+                this.mCrc = new CRC32();
+                this.mDigest = null;
+            } else {
+                this.mCrc = null;
+                try {
+                    this.mDigest = MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException("Unknown checksum algorithm " + algorithm);
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            if (this.mCrc != null) {
+                this.mCrc.update(b);
+            } else {
+                this.mDigest.update((byte) b);
+            }
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            if (this.mCrc != null) {
+                this.mCrc.update(data, offset, length);
+            } else {
+                this.mDigest.update(data, offset, length);
+            }
+        }
+
+        void update(File file) throws IOException {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] chunk = new byte[8192];
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    this.write(chunk, 0, read);
+                }
+            } finally {
+                Util.closeQuietly(in);
+            }
+        }
+
+        Sink wrap(Sink sink) {
+            return new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    source.copyTo(Checksum.this, 0, byteCount);
+                    super.write(source, byteCount);
+                }
+            };
+        }
+
+        String hex() {
+            if (this.mCrc != null) {
+                return String.format(Locale.US, "%08x", this.mCrc.getValue());
+            }
+            byte[] digest = this.mDigest.digest();
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format(Locale.US, "%02x", b & 0xff));
+            }
+            return sb.toString();
+        }
+    }
+}
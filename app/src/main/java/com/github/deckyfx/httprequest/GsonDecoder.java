@@ -0,0 +1,42 @@
+package com.github.deckyfx.httprequest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+import okio.BufferedSource;
+
+/**
+ * {@link ResponseDecoder} backed by Gson, parsing with a {@link JsonReader} over the body stream
+ * instead of a String. Gson is not bundled with this library, the app has to depend on it.
+ */
+public class GsonDecoder<T> implements ResponseDecoder<T> {
+    private final Gson mGson;
+    private final Type mType;
+
+    public GsonDecoder(Gson gson, Type type) {
+        if (gson == null) throw new NullPointerException("gson == null");
+        if (type == null) throw new NullPointerException("type == null");
+        this.mGson = gson;
+        this.mType = type;
+    }
+
+    public static <T> GsonDecoder<T> of(Class<T> type) {
+        return new GsonDecoder<T>(new Gson(), type);
+    }
+
+    @Override
+    public T decode(BufferedSource source, Charset charset) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(source.inputStream(), charset));
+        try {
+            return this.mGson.fromJson(reader, this.mType);
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        }
+    }
+}
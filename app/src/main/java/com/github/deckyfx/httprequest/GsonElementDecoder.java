@@ -0,0 +1,74 @@
+package com.github.deckyfx.httprequest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+import okio.BufferedSource;
+
+/**
+ * {@link ElementDecoder} backed by Gson, for a body that is either one top-level JSON array or
+ * newline delimited JSON values (NDJSON). Gson is not bundled with this library, the app has to
+ * depend on it.
+ */
+public class GsonElementDecoder<T> implements ElementDecoder<T> {
+    public enum Format { ARRAY, NDJSON }
+
+    private final Gson mGson;
+    private final Type mType;
+    private final Format mFormat;
+
+    public GsonElementDecoder(Gson gson, Type type, Format format) {
+        if (gson == null) throw new NullPointerException("gson == null");
+        if (type == null) throw new NullPointerException("type == null");
+        if (format == null) throw new NullPointerException("format == null");
+        this.mGson = gson;
+        this.mType = type;
+        this.mFormat = format;
+    }
+
+    /** Elements of type {@code type} in a top-level JSON array. */
+    public static <T> GsonElementDecoder<T> array(Class<T> type) {
+        return new GsonElementDecoder<T>(new Gson(), type, Format.ARRAY);
+    }
+
+    /** One JSON value of type {@code type} per line. */
+    public static <T> GsonElementDecoder<T> ndjson(Class<T> type) {
+        return new GsonElementDecoder<T>(new Gson(), type, Format.NDJSON);
+    }
+
+    @Override
+    public void decode(BufferedSource source, Charset charset, Sink<T> sink) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(source.inputStream(), charset));
+        try {
+            if (this.mFormat == Format.ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    sink.onElement(this.read(reader));
+                }
+                reader.endArray();
+            } else {
+                // Lenient mode reads one top-level value after another, newlines are just whitespace
+                reader.setLenient(true);
+                while (reader.peek() != JsonToken.END_DOCUMENT) {
+                    sink.onElement(this.read(reader));
+                }
+            }
+        } catch (JsonParseException e) {
+            throw new IOException(e);
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when the body is not shaped as expected
+            throw new IOException(e);
+        }
+    }
+
+    private T read(JsonReader reader) {
+        return this.mGson.fromJson(reader, this.mType);
+    }
+}
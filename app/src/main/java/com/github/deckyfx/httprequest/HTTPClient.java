@@ -1,27 +1,70 @@
 package com.github.deckyfx.httprequest;
 
+import android.app.Activity;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.support.annotation.NonNull;
 
 import com.github.deckyfx.persistentcookiejar.ClearableCookieJar;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.WeakHashMap;
 
 import okhttp3.CacheControl;
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.Cookie;
+import okhttp3.Dispatcher;
+import okhttp3.Headers;
 import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Response;
 
 public class HTTPClient {
+    public static final int DEFAULT_RETRY_BUDGET_CAPACITY      = 10;
+    public static final double DEFAULT_RETRY_BUDGET_REFILL     = 1;
 
     private HttpUrl mBaseURL;
     private DBHelper  DB;
     private CacheControl mCacheControl;
     private ClearableCookieJar mCookieStore;
+    private CallbackDispatcher mCallbackDispatcher;
+    private RequestCoalescer mCoalescer;
+    private boolean mCoalesceRequests;
+    private String[] mCoalesceVaryHeaders;
+    private RequestScheduler mScheduler;
+    private int mMaxQueuedRequests;
+    private ClientListener mClientListener;
+    private boolean mAdaptiveConcurrency;
+    private int mMaxRequestsPerHost;
+    private AdaptiveLimiter mLimiter;
+    private long mHedgeDelayMillis;
+    private int mHedgeBudgetPercent;
+    private RequestHedger mHedger;
+    private RetryPolicy mRetryPolicy;
+    private int mRetryBudgetCapacity;
+    private double mRetryBudgetRefill;
+    private TokenBucket mRetryBudget;
+    private CircuitBreaker mCircuitBreaker;
+    private TimeoutInterceptor mTimeoutInterceptor;
+    private NetworkMonitor mNetworkMonitor;
+    private boolean mDeferPrefetchOnMetered;
+    private OfflineOutbox mOutbox;
+    private RateLimiter mRateLimiter;
+    private long mSpillThreshold;
+    private final RequestIndex mIndex = new RequestIndex();
+    // Segmented downloads, chunked uploads and event sources, held weakly so finished ones can be collected
+    private final WeakHashMap<Object, Boolean> mHandles = new WeakHashMap<Object, Boolean>();
+    private final RequestSuperseder mSuperseder = new RequestSuperseder();
+    private final LifecycleBinder mLifecycleBinder = new LifecycleBinder(this);
 
     private OkHttpClient client;
 
@@ -50,7 +93,61 @@ public class HTTPClient {
         this.mCacheControl  = clientBuilder.mCacheControl;
         this.mCookieStore   = clientBuilder.mCookieStore;
         this.DB             = clientBuilder.DB;
+        this.mCallbackDispatcher = clientBuilder.mCallbackDispatcher;
+        this.mCoalesceRequests = clientBuilder.mCoalesceRequests;
+        this.mCoalesceVaryHeaders = clientBuilder.mCoalesceVaryHeaders;
+        this.mCoalescer     = this.mCoalesceRequests ? new RequestCoalescer(this.mCoalesceVaryHeaders) : null;
+        this.mMaxQueuedRequests = clientBuilder.mMaxQueuedRequests;
+        this.mClientListener = clientBuilder.mClientistener;
+        this.mAdaptiveConcurrency = clientBuilder.mAdaptiveConcurrency;
+        this.mMaxRequestsPerHost = clientBuilder.mMaxRequestsPerHost;
+        this.mHedgeDelayMillis = clientBuilder.mHedgeDelayMillis;
+        this.mHedgeBudgetPercent = clientBuilder.mHedgeBudgetPercent;
+        this.mHedger        = this.mHedgeBudgetPercent > 0 ? new RequestHedger(this.mHedgeDelayMillis, this.mHedgeBudgetPercent) : null;
+        this.mRetryPolicy   = clientBuilder.mRetryPolicy;
+        this.mRetryBudgetCapacity = clientBuilder.mRetryBudgetCapacity;
+        this.mRetryBudgetRefill = clientBuilder.mRetryBudgetRefill;
+        this.mRetryBudget   = new TokenBucket(this.mRetryBudgetCapacity, this.mRetryBudgetRefill);
+        this.mCircuitBreaker = clientBuilder.mCircuitBreaker;
+        this.mNetworkMonitor = clientBuilder.mNetworkMonitor;
+        this.mDeferPrefetchOnMetered = clientBuilder.mDeferPrefetchOnMetered;
+        this.mOutbox        = clientBuilder.mOutbox;
+        this.mRateLimiter   = clientBuilder.mRateLimiter;
+        this.mSpillThreshold = clientBuilder.mSpillThreshold;
         this.client         = clientBuilder.getBuilder().build();
+        Dispatcher dispatcher = null;
+        if (this.mAdaptiveConcurrency) {
+            this.mLimiter   = new AdaptiveLimiter(AdaptiveLimiter.DEFAULT_INITIAL_LIMIT,
+                    AdaptiveLimiter.DEFAULT_MIN_LIMIT, this.mMaxRequestsPerHost);
+            // The limiter decides per host concurrency, do not let the dispatcher cap it lower. A
+            // dispatcher of our own, the given one may be shared with other clients
+            Dispatcher shared = this.client.dispatcher();
+            dispatcher      = new Dispatcher();
+            dispatcher.setMaxRequests(shared.getMaxRequests());
+            dispatcher.setMaxRequestsPerHost(Math.max(this.mMaxRequestsPerHost, shared.getMaxRequestsPerHost()));
+        } else {
+            this.mLimiter   = null;
+        }
+        // Rebuild with listeners bound to this client, a copied builder still points to the old one
+        this.mTimeoutInterceptor = new TimeoutInterceptor();
+        OkHttpClient.Builder rebuilt = this.client.newBuilder()
+                .eventListenerFactory(new PrintingEventListener.Factory(this.mClientListener, this.mLimiter, this.mHedger));
+        Iterator<Interceptor> interceptors = rebuilt.interceptors().iterator();
+        while (interceptors.hasNext()) {
+            if (interceptors.next() instanceof TimeoutInterceptor) interceptors.remove();
+        }
+        rebuilt.interceptors().add(0, this.mTimeoutInterceptor);
+        if (dispatcher != null) rebuilt.dispatcher(dispatcher);
+        this.client         = rebuilt.build();
+        this.mScheduler     = new RequestScheduler(this.client.dispatcher().getMaxRequests(),
+                this.client.dispatcher().getMaxRequestsPerHost(), this.mMaxQueuedRequests);
+        this.mScheduler.setAdaptiveLimiter(this.mLimiter);
+        if (this.mNetworkMonitor != null && this.mDeferPrefetchOnMetered) {
+            this.mScheduler.deferPrefetchOnMetered(this.mNetworkMonitor);
+        }
+        if (this.mOutbox != null) {
+            this.mOutbox.bind(this.client, this.mNetworkMonitor, this.mRateLimiter, this.mCircuitBreaker);
+        }
         return this;
     }
 
@@ -66,6 +163,23 @@ public class HTTPClient {
         private CacheControl mCacheControl;
         private ClearableCookieJar mCookieStore;
         private ClientListener mClientistener;
+        private CallbackDispatcher mCallbackDispatcher;
+        private boolean mCoalesceRequests;
+        private String[] mCoalesceVaryHeaders;
+        private int mMaxQueuedRequests = RequestScheduler.DEFAULT_MAX_QUEUED;
+        private boolean mAdaptiveConcurrency;
+        private int mMaxRequestsPerHost = AdaptiveLimiter.DEFAULT_MAX_LIMIT;
+        private long mHedgeDelayMillis = RequestHedger.DEFAULT_DELAY_MILLIS;
+        private int mHedgeBudgetPercent;
+        private RetryPolicy mRetryPolicy = RetryPolicy.NONE;
+        private int mRetryBudgetCapacity = DEFAULT_RETRY_BUDGET_CAPACITY;
+        private double mRetryBudgetRefill = DEFAULT_RETRY_BUDGET_REFILL;
+        private CircuitBreaker mCircuitBreaker;
+        private NetworkMonitor mNetworkMonitor;
+        private boolean mDeferPrefetchOnMetered;
+        private OfflineOutbox mOutbox;
+        private RateLimiter mRateLimiter;
+        private long mSpillThreshold;
 
         public ClientBuilder() {
             this.builder = new OkHttpClient.Builder();
@@ -76,6 +190,24 @@ public class HTTPClient {
             this.mCacheControl  = client.mCacheControl;
             this.mCookieStore   = client.mCookieStore;
             this.DB             = client.DB;
+            this.mCallbackDispatcher = client.mCallbackDispatcher;
+            this.mCoalesceRequests = client.mCoalesceRequests;
+            this.mCoalesceVaryHeaders = client.mCoalesceVaryHeaders;
+            this.mMaxQueuedRequests = client.mMaxQueuedRequests;
+            this.mClientistener = client.mClientListener;
+            this.mAdaptiveConcurrency = client.mAdaptiveConcurrency;
+            this.mMaxRequestsPerHost = client.mMaxRequestsPerHost;
+            this.mHedgeDelayMillis = client.mHedgeDelayMillis;
+            this.mHedgeBudgetPercent = client.mHedgeBudgetPercent;
+            this.mRetryPolicy   = client.mRetryPolicy;
+            this.mRetryBudgetCapacity = client.mRetryBudgetCapacity;
+            this.mRetryBudgetRefill = client.mRetryBudgetRefill;
+            this.mCircuitBreaker = client.mCircuitBreaker;
+            this.mNetworkMonitor = client.mNetworkMonitor;
+            this.mDeferPrefetchOnMetered = client.mDeferPrefetchOnMetered;
+            this.mOutbox        = client.mOutbox;
+            this.mRateLimiter   = client.mRateLimiter;
+            this.mSpillThreshold = client.mSpillThreshold;
             this.builder        = client.client.newBuilder();
         }
 
@@ -84,6 +216,24 @@ public class HTTPClient {
             this.mCacheControl  = builder.mCacheControl;
             this.mCookieStore   = builder.mCookieStore;
             this.DB             = builder.DB;
+            this.mCallbackDispatcher = builder.mCallbackDispatcher;
+            this.mCoalesceRequests = builder.mCoalesceRequests;
+            this.mCoalesceVaryHeaders = builder.mCoalesceVaryHeaders;
+            this.mMaxQueuedRequests = builder.mMaxQueuedRequests;
+            this.mClientistener = builder.mClientistener;
+            this.mAdaptiveConcurrency = builder.mAdaptiveConcurrency;
+            this.mMaxRequestsPerHost = builder.mMaxRequestsPerHost;
+            this.mHedgeDelayMillis = builder.mHedgeDelayMillis;
+            this.mHedgeBudgetPercent = builder.mHedgeBudgetPercent;
+            this.mRetryPolicy   = builder.mRetryPolicy;
+            this.mRetryBudgetCapacity = builder.mRetryBudgetCapacity;
+            this.mRetryBudgetRefill = builder.mRetryBudgetRefill;
+            this.mCircuitBreaker = builder.mCircuitBreaker;
+            this.mNetworkMonitor = builder.mNetworkMonitor;
+            this.mDeferPrefetchOnMetered = builder.mDeferPrefetchOnMetered;
+            this.mOutbox        = builder.mOutbox;
+            this.mRateLimiter   = builder.mRateLimiter;
+            this.mSpillThreshold = builder.mSpillThreshold;
             this.builder        = builder.getBuilder();
         }
 
@@ -105,7 +255,6 @@ public class HTTPClient {
         }
 
         public HTTPClient build() {
-            this.builder.eventListener(new PrintingEventListener(this.mClientistener));
             return new HTTPClient(this);
         }
 
@@ -141,14 +290,138 @@ public class HTTPClient {
             this.mClientistener = listener;
             return this;
         }
+
+        public ClientBuilder setCallbackDispatcher(CallbackDispatcher callbackDispatcher){
+            this.mCallbackDispatcher = callbackDispatcher;
+            return this;
+        }
+
+        /**
+         * Shares one call between identical GET requests that are in flight at the same time.
+         * Requests are identical when method, final url and the vary headers match.
+         */
+        public ClientBuilder setRequestCoalescing(boolean enabled){
+            this.mCoalesceRequests = enabled;
+            return this;
+        }
+
+        public ClientBuilder setCoalesceVaryHeaders(String... headerNames){
+            this.mCoalesceVaryHeaders = headerNames;
+            return this;
+        }
+
+        /**
+         * Lets the allowed in-flight calls per host grow and shrink with observed latency and
+         * errors, between 1 and {@code maxRequestsPerHost}, starting from OkHttp's default of 5.
+         */
+        public ClientBuilder setAdaptiveConcurrency(boolean enabled, int maxRequestsPerHost){
+            if (maxRequestsPerHost <= 0) throw new IllegalArgumentException("maxRequestsPerHost <= 0");
+            this.mAdaptiveConcurrency = enabled;
+            this.mMaxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        public ClientBuilder setAdaptiveConcurrency(boolean enabled){
+            return this.setAdaptiveConcurrency(enabled, AdaptiveLimiter.DEFAULT_MAX_LIMIT);
+        }
+
+        /**
+         * Enables hedging of requests marked with {@link Request.Builder#hedge(boolean)}.
+         * {@code defaultDelayMillis} is used until a host has enough latency samples for a p95,
+         * {@code budgetPercent} caps hedges as a share of hedgeable calls.
+         */
+        public ClientBuilder setHedging(long defaultDelayMillis, int budgetPercent){
+            if (defaultDelayMillis < 0) throw new IllegalArgumentException("defaultDelayMillis < 0");
+            if (budgetPercent < 0 || budgetPercent > 100) throw new IllegalArgumentException("budgetPercent not in [0, 100]");
+            this.mHedgeDelayMillis = defaultDelayMillis;
+            this.mHedgeBudgetPercent = budgetPercent;
+            return this;
+        }
+
+        public ClientBuilder setRetryPolicy(@NonNull RetryPolicy retryPolicy){
+            if (retryPolicy == null) throw new NullPointerException("retryPolicy == null");
+            this.mRetryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Caps retries across the whole client: every retry takes a token from a bucket of
+         * {@code capacity} tokens refilled at {@code refillPerSecond}. With the bucket empty,
+         * failures are delivered instead of retried, so retries can not amplify an outage.
+         */
+        public ClientBuilder setRetryBudget(int capacity, double refillPerSecond){
+            if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0");
+            if (refillPerSecond < 0) throw new IllegalArgumentException("refillPerSecond < 0");
+            this.mRetryBudgetCapacity = capacity;
+            this.mRetryBudgetRefill = refillPerSecond;
+            return this;
+        }
+
+        /**
+         * Fails calls to a host fast while its circuit is open, instead of waiting out the
+         * timeouts. Failed-fast requests are rescued from the DB cache when it holds a response.
+         */
+        public ClientBuilder setCircuitBreaker(CircuitBreaker circuitBreaker){
+            this.mCircuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /** Answers network checks from {@code monitor} instead of asking ConnectivityManager per request. */
+        public ClientBuilder setNetworkMonitor(NetworkMonitor networkMonitor){
+            this.mNetworkMonitor = networkMonitor;
+            return this;
+        }
+
+        /** Keeps {@link Request.Priority#PREFETCH} requests queued while on a metered network, needs a network monitor. */
+        public ClientBuilder setDeferPrefetchOnMetered(boolean deferPrefetchOnMetered){
+            this.mDeferPrefetchOnMetered = deferPrefetchOnMetered;
+            return this;
+        }
+
+        /**
+         * Stores POST, PUT, PATCH and DELETE requests sent while offline and replays them when
+         * the network monitor reports a connection again.
+         */
+        public ClientBuilder setOfflineOutbox(OfflineOutbox outbox){
+            this.mOutbox = outbox;
+            return this;
+        }
+
+        /** Keeps calls under the per host and per path rates of {@code rateLimiter}. */
+        public ClientBuilder setRateLimiter(RateLimiter rateLimiter){
+            this.mRateLimiter = rateLimiter;
+            return this;
+        }
+
+        /** Default {@link Request.Builder#spillThreshold(long)} of requests that set none. */
+        public ClientBuilder setSpillThreshold(long spillThreshold){
+            if (spillThreshold < 0) throw new IllegalArgumentException("spillThreshold < 0");
+            this.mSpillThreshold = spillThreshold;
+            return this;
+        }
+
+        /**
+         * Sets how many requests may wait for admission. Past this, prefetch and background
+         * requests are shed. The in-flight limits follow the OkHttp dispatcher's.
+         */
+        public ClientBuilder setMaxQueuedRequests(int maxQueuedRequests){
+            if (maxQueuedRequests <= 0) throw new IllegalArgumentException("maxQueuedRequests <= 0");
+            this.mMaxQueuedRequests = maxQueuedRequests;
+            return this;
+        }
     }
 
     public void send(Request request) {
+        Request original        = request;
         Request.Builder builder = request.newBuilder();
         if (request.url() == null && request.path() != null && this.mBaseURL != null) builder.url(this.mBaseURL).path(request.path());
         if (this.DB != null) builder.dbHelper(this.DB);
         if (this.mCacheControl != null && request.cacheControl() == null) builder.cacheControl(this.mCacheControl);
+        if (this.mCallbackDispatcher != null && request.callbackDispatcher() == null) builder.callbackDispatcher(this.mCallbackDispatcher);
+        if (this.mSpillThreshold > 0 && request.spillThreshold() == 0) builder.spillThreshold(this.mSpillThreshold);
         request = builder.build(true);
+        // The caller cancels through the instance it holds, not through this copy
+        original.setSent(request);
 
         // Final check url can not be empty
         if (request.url() == null) throw new NullPointerException("url == null");
@@ -157,36 +430,331 @@ public class HTTPClient {
                 .url(request.url())
                 .cacheControl(request.cacheControl())
                 .tag(request.tag())
-                .method(request.method(), request.body())
+                .method(request.method(), request.uploadBody())
                 .headers(request.headers())
                 .build();
+        if (request.download() != null) {
+            req = request.download().prepare(req);
+        }
 
         if (!request.validContext()) {
             return;
         }
 
-        Call call               = this.client.newCall(req);
+        final Request indexed   = request;
+        this.mIndex.add(request);
+        if (request.context() instanceof Activity) {
+            this.mLifecycleBinder.bind((Activity) request.context());
+        }
+        request.setCompletionHook(new Runnable() {
+            @Override
+            public void run() {
+                mIndex.remove(indexed);
+                mSuperseder.finished(indexed);
+            }
+        });
+        // Counted from here, a debounce or a queue wait is part of the deadline
+        request.startDeadline(new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.remove(indexed);
+            }
+        });
+        if (request.supersedeKey() != null) {
+            this.mSuperseder.supersede(request);
+            if (request.debounceMillis() > 0) {
+                // Only goes out if no newer request with the same key arrives meanwhile
+                final okhttp3.Request debounced = req;
+                RequestTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!indexed.isCanceled() && !indexed.isDeadlineExceeded()) execute(indexed, debounced);
+                    }
+                }, request.debounceMillis());
+                return;
+            }
+        }
+        this.execute(request, req);
+    }
+
+    private void execute(Request request, okhttp3.Request req) {
         request.onStart();
         if (!this.isNetworkAvailable(request.context())) {
+            // Stored from the plain body, reading the progress wrapper would report an upload that never happened
+            if (this.mOutbox != null && this.mOutbox.offer(req.newBuilder().method(req.method(), request.body()).build())) {
+                request.setQueuedOffline();
+            }
             request.onNetworkError();
             return;
         }
-        call.enqueue(request);
+        Callback callback       = request;
+        if (TimeoutInterceptor.hasOverrides(request)) {
+            this.mTimeoutInterceptor.register(req, request);
+        } else if (this.mCoalescer != null && !request.readsOwnBody()) {
+            // Requests with their own timeouts never share a call, the leader's would apply
+            String key = this.mCoalescer.key(req);
+            if (key != null) {
+                callback = this.mCoalescer.join(key, request);
+                if (callback == null) {
+                    // Attached to an identical call already in flight
+                    return;
+                }
+            }
+        }
+        RetryPolicy policy = request.retryPolicy() != null ? request.retryPolicy() : this.mRetryPolicy;
+        if (policy.maxAttempts() > 1 && policy.isRetryable(request)) {
+            new RetryingCall(request, req, callback, policy).attempt();
+        } else {
+            this.dispatch(request, req, callback);
+        }
     }
 
+    private void dispatch(final Request request, final okhttp3.Request req, final Callback delegate) {
+        if (this.mCircuitBreaker != null && this.mCircuitBreaker.getState(req.url().host()) == CircuitBreaker.State.OPEN) {
+            // Checked before taking a token, a call that fails fast must not use up the rate
+            this.reject(request, delegate, ErrorString.CIRCUIT_OPEN);
+            return;
+        }
+        if (this.mRateLimiter != null) {
+            long wait = this.mRateLimiter.reserve(req.url());
+            if (wait < 0) {
+                this.reject(request, delegate, ErrorString.RATE_LIMITED);
+                return;
+            }
+            if (wait > 0) {
+                // The token is ours, wait for it outside the scheduler so no slot is held meanwhile
+                RequestTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submit(request, req, delegate);
+                    }
+                }, wait);
+                return;
+            }
+        }
+        this.submit(request, req, delegate);
+    }
+
+    private void submit(final Request request, final okhttp3.Request req, final Callback delegate) {
+        final String host = req.url().host();
+        if (this.mCircuitBreaker != null && this.mCircuitBreaker.getState(host) == CircuitBreaker.State.OPEN) {
+            this.reject(request, delegate, ErrorString.CIRCUIT_OPEN);
+            return;
+        }
+        Callback target = delegate instanceof RetryingCall ? ((RetryingCall) delegate).mDelegate : delegate;
+        final CallOwner owner = target instanceof CallOwner ? (CallOwner) target : request;
+        this.mScheduler.submit(new RequestScheduler.Task(request, host) {
+            @Override
+            void start() {
+                if (owner.isCanceled() || mRequest.isDeadlineExceeded()) {
+                    // The deadline already reported the timeout
+                    mScheduler.finished(this);
+                    return;
+                }
+                // Taken only now, a half open probe slot is given back by the tracked call alone
+                if (mCircuitBreaker != null && !mCircuitBreaker.allow(host)) {
+                    mScheduler.finished(this);
+                    reject(request, delegate, ErrorString.CIRCUIT_OPEN);
+                    return;
+                }
+                Callback callback = mScheduler.releaseOnComplete(this, delegate);
+                if (mCircuitBreaker != null) {
+                    callback = mCircuitBreaker.track(host, callback);
+                }
+                if (mRateLimiter != null) {
+                    callback = mRateLimiter.track(req.url(), callback);
+                }
+                if (mHedger != null && RequestHedger.isHedgeable(mRequest)) {
+                    mHedger.enqueue(client, req, mRequest.hedgeDelayMillis(), callback, owner);
+                    return;
+                }
+                Call call = client.newCall(req);
+                owner.attachCall(call);
+                call.enqueue(callback);
+            }
+
+            @Override
+            void shed() {
+                reject(request, delegate, ErrorString.REQUEST_DROPPED);
+            }
+        });
+    }
+
+    /** Finishes a request that never reached the network, with every request sharing its call. */
+    private void reject(Request request, Callback delegate, String reason) {
+        Callback target = delegate instanceof RetryingCall ? ((RetryingCall) delegate).mDelegate : delegate;
+        if (this.mCoalescer == null || !this.mCoalescer.drop(target, reason)) {
+            request.onDropped(reason);
+        }
+    }
+
+    /** Sends a request again, with backoff, until it succeeds or the policy or budget says stop. */
+    private final class RetryingCall implements Callback {
+        private final Request mRequest;
+        private final okhttp3.Request mCall;
+        private final Callback mDelegate;
+        private final RetryPolicy mPolicy;
+        private int mAttempt = 0;
+
+        RetryingCall(Request request, okhttp3.Request call, Callback delegate, RetryPolicy policy) {
+            this.mRequest = request;
+            this.mCall = call;
+            this.mDelegate = delegate;
+            this.mPolicy = policy;
+        }
+
+        void attempt() {
+            if (this.mDelegate instanceof CallOwner && ((CallOwner) this.mDelegate).isCanceled()) {
+                return;
+            }
+            if (this.mRequest.isDeadlineExceeded()) {
+                return;
+            }
+            this.mAttempt++;
+            dispatch(this.mRequest, this.mCall, this);
+        }
+
+        private boolean canRetry(long delayMillis) {
+            CallDeadline deadline = this.mRequest.deadline();
+            if (deadline != null && deadline.remainingMillis() <= delayMillis) {
+                return false;
+            }
+            return this.mAttempt < this.mPolicy.maxAttempts() && this.mRequest.validContext()
+                    && mRetryBudget.tryAcquire();
+        }
+
+        private void retryLater(long delayMillis) {
+            RequestTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    attempt();
+                }
+            }, delayMillis);
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            long delay = this.mPolicy.delayMillis(this.mAttempt);
+            if (!call.isCanceled() && this.mPolicy.shouldRetry(e) && this.canRetry(delay)) {
+                this.retryLater(delay);
+                return;
+            }
+            this.mDelegate.onFailure(call, e);
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            long delay = this.mPolicy.delayMillis(this.mAttempt, response);
+            if (!call.isCanceled() && delay >= 0 && this.mPolicy.shouldRetry(response) && this.canRetry(delay)) {
+                response.close();
+                this.retryLater(delay);
+                return;
+            }
+            this.mDelegate.onResponse(call, response);
+        }
+    }
+
+    /**
+     * Downloads {@code url} into {@code file} over up to {@code maxSegments} parallel range
+     * requests. The segment calls go straight to OkHttp, the download paces its own connections.
+     */
+    public SegmentedDownload downloadSegmented(HttpUrl url, File file, int maxSegments, SegmentedDownload.Listener listener){
+        return this.track(new SegmentedDownload(this.client, url, file, maxSegments, this.getCallbackDispatcher(), listener)).start();
+    }
+
+    public SegmentedDownload downloadSegmented(HttpUrl url, File file, SegmentedDownload.Listener listener){
+        return this.downloadSegmented(url, file, SegmentedDownload.DEFAULT_MAX_SEGMENTS, listener);
+    }
+
+    /**
+     * Uploads {@code file} to {@code url} in parts of {@code partSize} bytes, {@code concurrency}
+     * at a time. With a request cache database the finished parts survive a restart, and calling
+     * this again for the same url and file resumes the upload.
+     */
+    public ChunkedUpload uploadChunked(HttpUrl url, File file, int partSize, int concurrency, ChunkedUpload.Listener listener){
+        return this.track(new ChunkedUpload(this.client, url, file, partSize, concurrency, this.DB, this.getCallbackDispatcher(), listener)).start();
+    }
+
+    public ChunkedUpload uploadChunked(HttpUrl url, File file, ChunkedUpload.Listener listener){
+        return this.uploadChunked(url, file, ChunkedUpload.DEFAULT_PART_SIZE, ChunkedUpload.DEFAULT_CONCURRENCY, listener);
+    }
+
+    /**
+     * Opens a Server-Sent Events stream on {@code url}, sending {@code headers} as well. It
+     * reconnects by itself until {@link EventSource#close()} is called.
+     */
+    public EventSource openEventSource(HttpUrl url, Headers headers, EventSource.Listener listener){
+        return this.track(new EventSource(this.client, url, headers, this.getCallbackDispatcher(), listener)).connect();
+    }
+
+    public EventSource openEventSource(HttpUrl url, EventSource.Listener listener){
+        return this.openEventSource(url, null, listener);
+    }
+
+    private <T> T track(T handle) {
+        synchronized (this.mHandles) {
+            this.mHandles.put(handle, Boolean.TRUE);
+        }
+        return handle;
+    }
+
+    /**
+     * Cancels every request of this client that is queued, in flight or waiting to retry, and
+     * stops its segmented downloads, chunked uploads and event sources.
+     */
     public void cancelRequests(){
-        // Should watch this two line bellow! a dangerous method
-        // Likely will trigger crash when type for suggestion search
-        this.client.dispatcher().cancelAll();
-        for (Call call : this.client.dispatcher().queuedCalls()) {
-            call.cancel();
+        for (Request request : this.mIndex.all()) {
+            request.cancel();
+        }
+        List<Object> handles;
+        synchronized (this.mHandles) {
+            handles = new ArrayList<Object>(this.mHandles.keySet());
+            this.mHandles.clear();
+        }
+        for (Object handle : handles) {
+            if (handle instanceof SegmentedDownload) {
+                ((SegmentedDownload) handle).cancel();
+            } else if (handle instanceof ChunkedUpload) {
+                ((ChunkedUpload) handle).cancel();
+            } else if (handle instanceof EventSource) {
+                ((EventSource) handle).close();
+            }
         }
-        for (Call call : this.client.dispatcher().runningCalls()) {
-            call.cancel();
+    }
+
+    /**
+     * Cancels the requests sent with {@code tag}, leaving every other request alone. Segmented
+     * downloads, chunked uploads and event sources have no tag, cancel them through their handle.
+     */
+    public void cancelRequests(Object tag){
+        for (Request request : this.mIndex.byTag(tag)) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Cancels the requests owned by {@code context}, e.g. one screen's requests. Segmented
+     * downloads, chunked uploads and event sources have no context, cancel them through their handle.
+     */
+    public void cancelRequests(Context context){
+        for (Request request : this.mIndex.byContext(context)) {
+            request.cancel();
         }
     }
 
+    public int getInFlightRequestCount(){
+        return this.mIndex.size();
+    }
+
+    /** Number of requests cancelled because a newer one with the same supersede key was sent. */
+    public long getSupersededCount(){
+        return this.mSuperseder.getSupersededCount();
+    }
+
     public boolean isNetworkAvailable(Context ctx) {
+        if (this.mNetworkMonitor != null) {
+            return this.mNetworkMonitor.isConnected();
+        }
         NetworkInfo localNetworkInfo = ((ConnectivityManager) ctx.getSystemService(Context.CONNECTIVITY_SERVICE)).getActiveNetworkInfo();
         return (localNetworkInfo != null) && (localNetworkInfo.isConnected());
     }
@@ -220,4 +788,89 @@ public class HTTPClient {
     public DBHelper getDBCache(){
         return this.DB;
     }
+
+    public boolean isRequestCoalescing(){
+        return this.mCoalescer != null;
+    }
+
+    /** Number of requests that were served by attaching to an identical in-flight call. */
+    public long getCoalescedCount(){
+        return this.mCoalescer != null ? this.mCoalescer.getCoalescedCount() : 0;
+    }
+
+    public int getQueuedRequestCount(){
+        return this.mScheduler.getQueuedCount();
+    }
+
+    public int getQueuedRequestCount(Request.Priority priority){
+        return this.mScheduler.getQueuedCount(priority);
+    }
+
+    public int getScheduledRequestCount(){
+        return this.mScheduler.getInFlightCount();
+    }
+
+    public long getShedRequestCount(){
+        return this.mScheduler.getShedCount();
+    }
+
+    public double getAverageQueueWaitMillis(Request.Priority priority){
+        return this.mScheduler.getAverageQueueWaitMillis(priority);
+    }
+
+    /** Current in-flight limit for {@code host}, adaptive when enabled. */
+    public int getConcurrencyLimit(String host){
+        return this.mLimiter != null ? this.mLimiter.getLimit(host) : this.client.dispatcher().getMaxRequestsPerHost();
+    }
+
+    public int getScheduledRequestCount(String host){
+        return this.mScheduler.getInFlightCount(host);
+    }
+
+    public AdaptiveLimiter getAdaptiveLimiter(){
+        return this.mLimiter;
+    }
+
+    public long getHedgeCount(){
+        return this.mHedger != null ? this.mHedger.getHedgeCount() : 0;
+    }
+
+    /** Number of hedged calls where the second copy answered first. */
+    public long getHedgeWinCount(){
+        return this.mHedger != null ? this.mHedger.getHedgeWinCount() : 0;
+    }
+
+    public RetryPolicy getRetryPolicy(){
+        return this.mRetryPolicy;
+    }
+
+    /** Retries that can still be spent right now from the client-wide budget. */
+    public double getRetryBudgetAvailable(){
+        return this.mRetryBudget.available();
+    }
+
+    public CircuitBreaker getCircuitBreaker(){
+        return this.mCircuitBreaker;
+    }
+
+    public NetworkMonitor getNetworkMonitor(){
+        return this.mNetworkMonitor;
+    }
+
+    public RateLimiter getRateLimiter(){
+        return this.mRateLimiter;
+    }
+
+    public OfflineOutbox getOfflineOutbox(){
+        return this.mOutbox;
+    }
+
+    /** Replays the offline outbox now, e.g. when there is no network monitor to trigger it. */
+    public void replayOfflineOutbox(){
+        if (this.mOutbox != null) this.mOutbox.replay();
+    }
+
+    public CallbackDispatcher getCallbackDispatcher(){
+        return this.mCallbackDispatcher != null ? this.mCallbackDispatcher : CallbackDispatcher.getDefault();
+    }
 }
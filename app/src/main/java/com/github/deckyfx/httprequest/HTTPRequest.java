@@ -47,6 +47,18 @@ public class HTTPRequest extends OkHttpClient {
     private HttpLoggingInterceptor  mLogInterceptor;
     private ChuckInterceptor        mChuckInterceptor;
     private Authenticator           mAuthenticator;
+    private CallbackDispatcher      mCallbackDispatcher;
+    private boolean                 mCoalesceRequests;
+    private boolean                 mAdaptiveConcurrency;
+    private long                    mHedgeDelayMillis           = RequestHedger.DEFAULT_DELAY_MILLIS;
+    private int                     mHedgeBudgetPercent;
+    private RetryPolicy             mRetryPolicy                = RetryPolicy.NONE;
+    private CircuitBreaker          mCircuitBreaker;
+    private NetworkMonitor          mNetworkMonitor;
+    private boolean                 mDeferPrefetchOnMetered;
+    private OfflineOutbox           mOutbox;
+    private RateLimiter             mRateLimiter;
+    private long                    mSpillThreshold;
 
     public HTTPRequest() {
 
@@ -57,6 +69,62 @@ public class HTTPRequest extends OkHttpClient {
         return this;
     }
 
+    /**
+     * Watches connectivity once for the whole app, after this sending a request no longer asks
+     * ConnectivityManager whether the network is up.
+     */
+    public HTTPRequest monitorNetwork(Context ctx) {
+        if (this.mNetworkMonitor == null) {
+            this.mNetworkMonitor = new NetworkMonitor(ctx);
+        }
+        return this;
+    }
+
+    /** Keeps prefetch requests queued while the device is on a metered network. */
+    public HTTPRequest deferPrefetchOnMetered(Context ctx, boolean defer) {
+        this.monitorNetwork(ctx);
+        this.mDeferPrefetchOnMetered = defer;
+        return this;
+    }
+
+    /**
+     * Keeps mutations sent while offline in the request cache database and replays them once
+     * connectivity returns. Needs {@link #setupDBCache(Context)} first.
+     */
+    public HTTPRequest enableOfflineOutbox(Context ctx) {
+        if (this.DB == null) throw new IllegalStateException("setupDBCache() must be called first");
+        this.monitorNetwork(ctx);
+        if (this.mOutbox == null) {
+            this.mOutbox = new OfflineOutbox(this.DB);
+        }
+        return this;
+    }
+
+    /** Applies the client side rate limits of {@code rateLimiter} to every request. */
+    public HTTPRequest setRateLimiter(RateLimiter rateLimiter) {
+        this.mRateLimiter = rateLimiter;
+        return this;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return this.mRateLimiter;
+    }
+
+    /** Writes successful response bodies over {@code bytes} to disk, see {@link Request.Builder#spillThreshold(long)}. */
+    public HTTPRequest setSpillThreshold(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("bytes < 0");
+        this.mSpillThreshold = bytes;
+        return this;
+    }
+
+    public OfflineOutbox getOfflineOutbox() {
+        return this.mOutbox;
+    }
+
+    public NetworkMonitor getNetworkMonitor() {
+        return this.mNetworkMonitor;
+    }
+
     public HashMap<String, Cookie> getCookies(){
         HashMap<String, Cookie> result = new HashMap<String, Cookie>();
         List<Cookie> cookielist = this.mCookieStore.loadForRequest(this.mBaseURL);
@@ -100,6 +168,66 @@ public class HTTPRequest extends OkHttpClient {
         return this.DB;
     }
 
+    public HTTPRequest setCallbackDispatcher(CallbackDispatcher callbackDispatcher) {
+        this.mCallbackDispatcher = callbackDispatcher;
+        return this;
+    }
+
+    public HTTPRequest setCallbackThreads(int threads, int queueSize) {
+        this.mCallbackDispatcher = new CallbackDispatcher(threads, queueSize);
+        return this;
+    }
+
+    /**
+     * Runs Activity callbacks in one batch per frame instead of one message each, useful for
+     * screens that fire many requests at once.
+     */
+    public HTTPRequest enableFrameAlignedCallbacks() {
+        if (this.mCallbackDispatcher == null) {
+            this.mCallbackDispatcher = new CallbackDispatcher();
+        }
+        this.mCallbackDispatcher.setFrameAligned(true);
+        return this;
+    }
+
+    public CallbackDispatcher getCallbackDispatcher() {
+        return this.mCallbackDispatcher;
+    }
+
+    public HTTPRequest enableRequestCoalescing() {
+        this.mCoalesceRequests = true;
+        return this;
+    }
+
+    public HTTPRequest enableAdaptiveConcurrency() {
+        this.mAdaptiveConcurrency = true;
+        return this;
+    }
+
+    public HTTPRequest enableHedging() {
+        return this.enableHedging(RequestHedger.DEFAULT_DELAY_MILLIS, RequestHedger.DEFAULT_BUDGET_PERCENT);
+    }
+
+    public HTTPRequest enableHedging(long defaultDelayMillis, int budgetPercent) {
+        this.mHedgeDelayMillis = defaultDelayMillis;
+        this.mHedgeBudgetPercent = budgetPercent;
+        return this;
+    }
+
+    public HTTPRequest setRetryPolicy(RetryPolicy retryPolicy) {
+        this.mRetryPolicy = retryPolicy;
+        return this;
+    }
+
+    public HTTPRequest enableCircuitBreaker() {
+        return this.enableCircuitBreaker(new CircuitBreaker());
+    }
+
+    public HTTPRequest enableCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.mCircuitBreaker = circuitBreaker;
+        return this;
+    }
+
     public HTTPRequest enableHTTPLogging(){
         this.mLogInterceptor = new HttpLoggingInterceptor();
         this.mLogInterceptor.setLevel(HttpLoggingInterceptor.Level.BASIC);
@@ -229,6 +357,17 @@ public class HTTPRequest extends OkHttpClient {
         ClientBuilder.setCacheControl(this.getCacheControl());
         ClientBuilder.setCookieStore(this.getCookieStore());
         ClientBuilder.setDBCache(this.getDBCache());
+        ClientBuilder.setCallbackDispatcher(this.getCallbackDispatcher());
+        ClientBuilder.setRequestCoalescing(this.mCoalesceRequests);
+        ClientBuilder.setAdaptiveConcurrency(this.mAdaptiveConcurrency);
+        ClientBuilder.setHedging(this.mHedgeDelayMillis, this.mHedgeBudgetPercent);
+        ClientBuilder.setRetryPolicy(this.mRetryPolicy);
+        ClientBuilder.setCircuitBreaker(this.mCircuitBreaker);
+        ClientBuilder.setNetworkMonitor(this.mNetworkMonitor);
+        ClientBuilder.setDeferPrefetchOnMetered(this.mDeferPrefetchOnMetered);
+        ClientBuilder.setOfflineOutbox(this.mOutbox);
+        ClientBuilder.setRateLimiter(this.mRateLimiter);
+        ClientBuilder.setSpillThreshold(this.mSpillThreshold);
         this.mDefaultClient = new HTTPClient(ClientBuilder.build());
         return this;
     }
@@ -241,10 +380,30 @@ public class HTTPRequest extends OkHttpClient {
         this.getDefaultClient().send(request);
     }
 
+    public SegmentedDownload downloadSegmented(HttpUrl url, File file, SegmentedDownload.Listener listener) {
+        return this.getDefaultClient().downloadSegmented(url, file, listener);
+    }
+
+    public ChunkedUpload uploadChunked(HttpUrl url, File file, ChunkedUpload.Listener listener) {
+        return this.getDefaultClient().uploadChunked(url, file, listener);
+    }
+
+    public EventSource openEventSource(HttpUrl url, EventSource.Listener listener) {
+        return this.getDefaultClient().openEventSource(url, listener);
+    }
+
     public void cancelRequests(){
         this.getDefaultClient().cancelRequests();
     }
 
+    public void cancelRequests(Object tag){
+        this.getDefaultClient().cancelRequests(tag);
+    }
+
+    public void cancelRequests(Context context){
+        this.getDefaultClient().cancelRequests(context);
+    }
+
     public boolean isNetworkAvailable(Context ctx) {
         return this.getDefaultClient().isNetworkAvailable(ctx);
     }
@@ -0,0 +1,60 @@
+package com.github.deckyfx.httprequest;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Cancels a client's requests when the Activity that sent them is destroyed, so a rotated or
+ * closed screen stops downloading and parsing responses nobody will see. Registered once per
+ * Application, and holds the client weakly so a discarded client can still be collected.
+ */
+class LifecycleBinder implements Application.ActivityLifecycleCallbacks {
+    private final WeakReference<HTTPClient> mClient;
+    private Application mApplication;
+
+    LifecycleBinder(HTTPClient client) {
+        this.mClient = new WeakReference<HTTPClient>(client);
+    }
+
+    /** Starts watching the Application of {@code activity}, does nothing if already watching. */
+    synchronized void bind(Activity activity) {
+        if (this.mApplication != null) return;
+        Application application = activity.getApplication();
+        if (application == null) return;
+        this.mApplication = application;
+        application.registerActivityLifecycleCallbacks(this);
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        HTTPClient client = this.mClient.get();
+        if (client == null) {
+            synchronized (this) {
+                if (this.mApplication != null) this.mApplication.unregisterActivityLifecycleCallbacks(this);
+            }
+            return;
+        }
+        client.cancelRequests(activity);
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityStarted(Activity activity) {}
+
+    @Override
+    public void onActivityResumed(Activity activity) {}
+
+    @Override
+    public void onActivityPaused(Activity activity) {}
+
+    @Override
+    public void onActivityStopped(Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+}
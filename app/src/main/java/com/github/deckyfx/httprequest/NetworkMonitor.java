@@ -0,0 +1,189 @@
+package com.github.deckyfx.httprequest;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a snapshot of the default network, refreshed from connectivity callbacks, so checking
+ * it before every request does not cost a binder call to {@link ConnectivityManager}.
+ */
+public class NetworkMonitor {
+    public enum Transport { NONE, WIFI, CELLULAR, ETHERNET, OTHER }
+
+    public interface Listener {
+        void onNetworkChanged(State state);
+    }
+
+    public static final class State {
+        public static final State DISCONNECTED = new State(false, false, Transport.NONE);
+
+        private final boolean mConnected;
+        private final boolean mMetered;
+        private final Transport mTransport;
+
+        State(boolean connected, boolean metered, Transport transport) {
+            this.mConnected = connected;
+            this.mMetered = metered;
+            this.mTransport = transport;
+        }
+
+        public boolean isConnected() {
+            return this.mConnected;
+        }
+
+        public boolean isMetered() {
+            return this.mMetered;
+        }
+
+        public Transport getTransport() {
+            return this.mTransport;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof State)) return false;
+            State that = (State) other;
+            return this.mConnected == that.mConnected && this.mMetered == that.mMetered && this.mTransport == that.mTransport;
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.mConnected ? 1 : 0) + (this.mMetered ? 2 : 0) + 4 * this.mTransport.ordinal();
+        }
+
+        @Override
+        public String toString() {
+            return this.mConnected ? this.mTransport + (this.mMetered ? " (metered)" : "") : "DISCONNECTED";
+        }
+    }
+
+    private final ConnectivityManager mConnectivity;
+    private final AtomicReference<State> mState;
+    private final CopyOnWriteArrayList<WeakReference<Listener>> mListeners = new CopyOnWriteArrayList<WeakReference<Listener>>();
+
+    @SuppressWarnings("deprecation")
+    public NetworkMonitor(Context ctx) {
+        Context application = ctx.getApplicationContext() != null ? ctx.getApplicationContext() : ctx;
+        this.mConnectivity = (ConnectivityManager) application.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.mState = new AtomicReference<State>(this.query());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            this.mConnectivity.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    update(query());
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                    update(fromCapabilities(capabilities));
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    update(State.DISCONNECTED);
+                }
+            });
+        } else {
+            application.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    update(query());
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    /** Latest snapshot, a plain field read. */
+    public State getState() {
+        return this.mState.get();
+    }
+
+    public boolean isConnected() {
+        return this.mState.get().isConnected();
+    }
+
+    /** Adds a listener for changes. Listeners are held weakly, keep a reference to them. */
+    public void addListener(Listener listener) {
+        this.mListeners.add(new WeakReference<Listener>(listener));
+    }
+
+    public void removeListener(Listener listener) {
+        for (WeakReference<Listener> reference : this.mListeners) {
+            Listener current = reference.get();
+            if (current == null || current == listener) this.mListeners.remove(reference);
+        }
+    }
+
+    private void update(State state) {
+        State previous = this.mState.getAndSet(state);
+        if (state.equals(previous)) return;
+        for (WeakReference<Listener> reference : this.mListeners) {
+            Listener listener = reference.get();
+            if (listener == null) {
+                this.mListeners.remove(reference);
+            } else {
+                listener.onNetworkChanged(state);
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private State query() {
+        NetworkInfo info = this.mConnectivity.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return State.DISCONNECTED;
+        }
+        Transport transport;
+        switch (info.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                transport = Transport.WIFI;
+                break;
+            case ConnectivityManager.TYPE_ETHERNET:
+                transport = Transport.ETHERNET;
+                break;
+            case ConnectivityManager.TYPE_MOBILE:
+            case ConnectivityManager.TYPE_MOBILE_DUN:
+            case ConnectivityManager.TYPE_WIMAX:
+                transport = Transport.CELLULAR;
+                break;
+            default:
+                transport = Transport.OTHER;
+        }
+        boolean metered;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            metered = this.mConnectivity.isActiveNetworkMetered();
+        } else {
+            metered = transport == Transport.CELLULAR;
+        }
+        return new State(true, metered, transport);
+    }
+
+    private static State fromCapabilities(NetworkCapabilities capabilities) {
+        if (!capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+            return State.DISCONNECTED;
+        }
+        Transport transport;
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            transport = Transport.WIFI;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            transport = Transport.ETHERNET;
+        } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            transport = Transport.CELLULAR;
+        } else {
+            transport = Transport.OTHER;
+        }
+        boolean metered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        return new State(true, metered, transport);
+    }
+}
@@ -0,0 +1,303 @@
+package com.github.deckyfx.httprequest;
+
+import com.github.deckyfx.httprequest.dao.OutboxRequest;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * Durable queue for POST, PUT, PATCH and DELETE requests sent while offline. They are stored in
+ * the request cache database and replayed oldest first once the network is back, in batches and
+ * a few at a time, so a reconnect does not turn into a burst against the server. Replays go
+ * through the client's rate limiter and circuit breaker like any other call.
+ *
+ * <p>Credential headers ({@code Authorization}, {@code Proxy-Authorization}, {@code Cookie}) are
+ * not written to the database. At replay cookies come from the client's cookie jar, other
+ * credentials have to be added by an interceptor or {@code Authenticator} of the client.
+ */
+public class OfflineOutbox implements NetworkMonitor.Listener {
+    public static final int DEFAULT_BATCH_SIZE                  = 20;
+    public static final int DEFAULT_CONCURRENCY                 = 2;
+    public static final int DEFAULT_MAX_ATTEMPTS                = 10;
+    public static final int DEFAULT_MAX_BODY_BYTES              = 1024 * 1024;
+    public static final int DEFAULT_REPLAY_JITTER_MILLIS        = 3000;
+
+    private static final String[] CREDENTIAL_HEADERS            = new String[] {
+            "Authorization", "Proxy-Authorization", "Cookie"
+    };
+
+    private final DBHelper mDB;
+    private final int mBatchSize;
+    private final int mConcurrency;
+    private final int mMaxAttempts;
+    private final Random mRandom                                = new Random();
+    private volatile OkHttpClient mClient;
+    private volatile RateLimiter mRateLimiter;
+    private volatile CircuitBreaker mCircuitBreaker;
+    private NetworkMonitor mNetworkMonitor;
+    private boolean mReplaying                                  = false;
+
+    public OfflineOutbox(DBHelper db) {
+        this(db, DEFAULT_BATCH_SIZE, DEFAULT_CONCURRENCY, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public OfflineOutbox(DBHelper db, int batchSize, int concurrency, int maxAttempts) {
+        if (db == null) throw new NullPointerException("db == null");
+        if (batchSize <= 0) throw new IllegalArgumentException("batchSize <= 0");
+        if (concurrency <= 0) throw new IllegalArgumentException("concurrency <= 0");
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts <= 0");
+        this.mDB = db;
+        this.mBatchSize = batchSize;
+        this.mConcurrency = concurrency;
+        this.mMaxAttempts = maxAttempts;
+    }
+
+    static boolean isMutation(String method) {
+        return method.equals(HttpMethod.POST) || method.equals(HttpMethod.PUT)
+                || method.equals(HttpMethod.PATCH) || method.equals(HttpMethod.DELETE);
+    }
+
+    /**
+     * Replays through {@code client}, within {@code rateLimiter} and {@code circuitBreaker} when
+     * set, and automatically whenever {@code monitor} reports a connection.
+     */
+    synchronized void bind(OkHttpClient client, NetworkMonitor monitor, RateLimiter rateLimiter, CircuitBreaker circuitBreaker) {
+        this.mClient = client;
+        this.mRateLimiter = rateLimiter;
+        this.mCircuitBreaker = circuitBreaker;
+        if (monitor != null && monitor != this.mNetworkMonitor) {
+            if (this.mNetworkMonitor != null) this.mNetworkMonitor.removeListener(this);
+            this.mNetworkMonitor = monitor;
+            monitor.addListener(this);
+            // Requests left over from the last run would otherwise wait for the next network change
+            if (monitor.isConnected()) this.replay();
+        }
+    }
+
+    /**
+     * Stores {@code request} for replay. Returns false if it can not be stored: not a mutation, or
+     * a body that is too large or can not be read twice.
+     */
+    boolean offer(okhttp3.Request request) {
+        if (!isMutation(request.method())) {
+            return false;
+        }
+        byte[] body = null;
+        String contentType = null;
+        RequestBody requestBody = request.body();
+        if (requestBody != null) {
+            try {
+                if (requestBody.contentLength() > DEFAULT_MAX_BODY_BYTES) return false;
+                Buffer buffer = new Buffer();
+                requestBody.writeTo(buffer);
+                if (buffer.size() > DEFAULT_MAX_BODY_BYTES) return false;
+                body = buffer.readByteArray();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            if (requestBody.contentType() != null) contentType = requestBody.contentType().toString();
+        }
+        Headers.Builder headers = request.headers().newBuilder();
+        for (String name : CREDENTIAL_HEADERS) {
+            headers.removeAll(name);
+        }
+        this.mDB.saveToOutbox(request.url().toString(), request.method(), headers.build().toString(), body, contentType);
+        return true;
+    }
+
+    public long size() {
+        return this.mDB.countOutbox();
+    }
+
+    @Override
+    public void onNetworkChanged(NetworkMonitor.State state) {
+        if (state.isConnected()) {
+            this.replay();
+        }
+    }
+
+    /**
+     * Replays the stored requests, after a short random delay so devices coming back online at
+     * the same time do not all hit the server at once. Stops at the first request that fails
+     * with a network error or a retryable status, it is tried again on the next replay.
+     */
+    public void replay() {
+        synchronized (this) {
+            if (this.mReplaying || this.mClient == null) return;
+            this.mReplaying = true;
+        }
+        RequestTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                nextBatch();
+            }
+        }, this.mRandom.nextInt(DEFAULT_REPLAY_JITTER_MILLIS));
+    }
+
+    private void nextBatch() {
+        List<OutboxRequest> batch;
+        try {
+            batch = this.mDB.loadFromOutbox(this.mBatchSize);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            batch = null;
+        }
+        if (batch == null || batch.isEmpty()) {
+            this.finishReplay();
+            return;
+        }
+        new Batch(batch).start();
+    }
+
+    private synchronized void finishReplay() {
+        this.mReplaying = false;
+    }
+
+    static okhttp3.Request toRequest(OutboxRequest entry) {
+        Headers.Builder headers = new Headers.Builder();
+        if (entry.getHeader() != null) {
+            for (String line : entry.getHeader().split("\n")) {
+                if (line.length() > 0) headers.add(line);
+            }
+        }
+        RequestBody body = null;
+        if (entry.getBody() != null) {
+            MediaType contentType = entry.getContentType() != null ? MediaType.parse(entry.getContentType()) : null;
+            body = RequestBody.create(contentType, entry.getBody());
+        } else if (!entry.getMethod().equals(HttpMethod.DELETE)) {
+            body = RequestBody.create(null, new byte[0]);
+        }
+        return new okhttp3.Request.Builder()
+                .url(entry.getUrl())
+                .headers(headers.build())
+                .method(entry.getMethod(), body)
+                .build();
+    }
+
+    /** One batch of stored requests, started in the order they were saved. */
+    private final class Batch implements Callback {
+        private final ArrayDeque<OutboxRequest> mPending;
+        private final HashMap<Call, OutboxRequest> mRunning   = new HashMap<Call, OutboxRequest>();
+        private boolean mStalled                                = false;
+
+        Batch(List<OutboxRequest> entries) {
+            this.mPending = new ArrayDeque<OutboxRequest>(entries);
+        }
+
+        void start() {
+            boolean finished;
+            synchronized (this) {
+                this.startMore();
+                finished = this.mRunning.isEmpty();
+            }
+            if (finished) this.finish();
+        }
+
+        private void startMore() {
+            while (!this.mStalled && this.mRunning.size() < mConcurrency && !this.mPending.isEmpty()) {
+                OutboxRequest entry = this.mPending.peekFirst();
+                okhttp3.Request request;
+                try {
+                    request = toRequest(entry);
+                } catch (IllegalArgumentException e) {
+                    // Corrupt entry, it would never succeed
+                    this.mPending.pollFirst();
+                    entry.delete();
+                    continue;
+                }
+                CircuitBreaker circuitBreaker = mCircuitBreaker;
+                RateLimiter rateLimiter = mRateLimiter;
+                String host = request.url().host();
+                // The circuit first, an open one must not use up a rate limiter token
+                if (circuitBreaker != null && !circuitBreaker.allow(host)) {
+                    // Not a failure of this entry, leave it for the next replay
+                    this.mStalled = true;
+                    return;
+                }
+                long wait = rateLimiter != null ? rateLimiter.reserve(request.url()) : 0;
+                if (wait < 0) {
+                    if (circuitBreaker != null) circuitBreaker.release(host);
+                    this.mStalled = true;
+                    return;
+                }
+                this.mPending.pollFirst();
+                Callback callback = this;
+                if (circuitBreaker != null) callback = circuitBreaker.track(host, callback);
+                if (rateLimiter != null) callback = rateLimiter.track(request.url(), callback);
+                final Call call = mClient.newCall(request);
+                final Callback tracked = callback;
+                this.mRunning.put(call, entry);
+                if (wait > 0) {
+                    RequestTimer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            call.enqueue(tracked);
+                        }
+                    }, wait);
+                } else {
+                    call.enqueue(tracked);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            this.completed(call, false);
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            int code = response.code();
+            response.close();
+            // A 4xx other than 408 and 429 will not get better by sending it again
+            this.completed(call, code != 408 && code != 429 && code < 500);
+        }
+
+        private void completed(Call call, boolean done) {
+            OutboxRequest entry;
+            synchronized (this) {
+                entry = this.mRunning.get(call);
+            }
+            try {
+                int attempts = (entry.getAttempts() != null ? entry.getAttempts() : 0) + 1;
+                if (done || attempts >= mMaxAttempts) {
+                    entry.delete();
+                } else {
+                    entry.setAttempts(attempts);
+                    entry.update();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            boolean finished;
+            synchronized (this) {
+                this.mRunning.remove(call);
+                if (!done) this.mStalled = true;
+                this.startMore();
+                finished = this.mRunning.isEmpty();
+            }
+            if (finished) this.finish();
+        }
+
+        private void finish() {
+            if (this.mStalled) {
+                finishReplay();
+            } else {
+                nextBatch();
+            }
+        }
+    }
+}
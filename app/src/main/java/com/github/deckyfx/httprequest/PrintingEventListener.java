@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.List;
 
 import okhttp3.Call;
@@ -15,11 +17,57 @@ import okhttp3.Response;
 
 class PrintingEventListener extends EventListener {
 
+    /** Receives the time to response headers of every finished call. */
+    interface CallObserver {
+        void onCallCompleted(String host, long latencyNanos, boolean failed, boolean timedOut);
+    }
+
+    /** Creates one listener per call, so timings of concurrent calls do not mix. */
+    static final class Factory implements EventListener.Factory {
+        private final ClientListener mClientistener;
+        private final CallObserver mObserver;
+
+        Factory(ClientListener mClientistener, CallObserver... observers) {
+            final ArrayList<CallObserver> list = new ArrayList<CallObserver>();
+            for (CallObserver observer : observers) {
+                if (observer != null) list.add(observer);
+            }
+            this.mClientistener = mClientistener;
+            this.mObserver = list.isEmpty() ? null : new CallObserver() {
+                @Override
+                public void onCallCompleted(String host, long latencyNanos, boolean failed, boolean timedOut) {
+                    for (CallObserver observer : list) {
+                        observer.onCallCompleted(host, latencyNanos, failed, timedOut);
+                    }
+                }
+            };
+        }
+
+        @Override public EventListener create(Call call) {
+            return new PrintingEventListener(this.mClientistener, this.mObserver);
+        }
+    }
+
     private final ClientListener mClientistener;
+    private final CallObserver mObserver;
     private long callStartNanos;
+    private long responseHeadersNanos;
+    private int responseCode;
 
     public PrintingEventListener(ClientListener mClientistener) {
+        this(mClientistener, null);
+    }
+
+    PrintingEventListener(ClientListener mClientistener, CallObserver observer) {
         this.mClientistener = mClientistener;
+        this.mObserver = observer;
+    }
+
+    private void observe(Call call, boolean failed, boolean timedOut) {
+        if (this.mObserver == null) return;
+        long latency = this.responseHeadersNanos > 0 ? this.responseHeadersNanos - this.callStartNanos
+                : System.nanoTime() - this.callStartNanos;
+        this.mObserver.onCallCompleted(call.request().url().host(), latency, failed, timedOut);
     }
 
     private void printEvent(String name) {
@@ -96,6 +144,8 @@ class PrintingEventListener extends EventListener {
 
     @Override public void responseHeadersEnd(Call call, Response response) {
         printEvent("responseHeadersEnd");
+        this.responseHeadersNanos = System.nanoTime();
+        this.responseCode = response.code();
     }
 
     @Override public void responseBodyStart(Call call) {
@@ -108,9 +158,14 @@ class PrintingEventListener extends EventListener {
 
     @Override public void callEnd(Call call) {
         printEvent("callEnd");
+        // A host shedding load answers quickly, those answers must not count as healthy
+        this.observe(call, this.responseCode >= 500 || this.responseCode == 429, false);
     }
 
     @Override public void callFailed(Call call, IOException ioe) {
         printEvent("callFailed");
+        if (!call.isCanceled()) {
+            this.observe(call, true, ioe instanceof SocketTimeoutException);
+        }
     }
 }
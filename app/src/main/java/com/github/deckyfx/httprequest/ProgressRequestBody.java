@@ -0,0 +1,51 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * Request body counterpart of {@link ProgressResponseBody}, reports the bytes written so far.
+ */
+public class ProgressRequestBody extends RequestBody {
+
+    private final RequestBody requestBody;
+    private final ProgressResponseBody.ProgressListener progressListener;
+
+    public ProgressRequestBody(RequestBody requestBody, ProgressResponseBody.ProgressListener progressListener) {
+        this.requestBody = requestBody;
+        this.progressListener = progressListener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return requestBody.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return requestBody.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        final long contentLength = requestBody.contentLength();
+        final long[] totalBytesWritten = new long[1];
+        BufferedSink countingSink = Okio.buffer(new ForwardingSink(sink) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                super.write(source, byteCount);
+                totalBytesWritten[0] += byteCount;
+                progressListener.update(totalBytesWritten[0], contentLength, false);
+            }
+        });
+        requestBody.writeTo(countingSink);
+        countingSink.flush();
+        progressListener.update(totalBytesWritten[0], contentLength, true);
+    }
+}
@@ -0,0 +1,14 @@
+package com.github.deckyfx.httprequest;
+
+/**
+ * A {@link RequestListener} that is told how far the request body upload and the response body
+ * download have come.
+ */
+public interface ProgressRequestListener extends RequestListener {
+    /**
+     * Called on the same thread as the other callbacks, at most every 100 ms per direction. If
+     * the listener falls behind, only the latest progress is delivered. The last call of a
+     * direction has {@link TransferProgress#isDone()} set.
+     */
+    void onHTTPRequestProgress(Request request, TransferProgress progress);
+}
@@ -23,6 +23,7 @@ public class ProgressResponseBody extends ResponseBody {
     private final ResponseBody responseBody;
     private final ProgressListener progressListener;
     private BufferedSource bufferedSource;
+    private long contentLength = -2;
 
     public ProgressResponseBody(ResponseBody responseBody, ProgressListener progressListener) {
         this.responseBody = responseBody;
@@ -36,7 +37,11 @@ public class ProgressResponseBody extends ResponseBody {
 
     @Override
     public long contentLength() {
-        return responseBody.contentLength();
+        // Looked up once, the listener needs it on every read
+        if (contentLength == -2) {
+            contentLength = responseBody.contentLength();
+        }
+        return contentLength;
     }
 
     @Override
@@ -50,13 +55,19 @@ public class ProgressResponseBody extends ResponseBody {
     private Source source(Source source) {
         return new ForwardingSource(source) {
             long totalBytesRead = 0L;
+            boolean done = false;
 
             @Override
             public long read(Buffer sink, long byteCount) throws IOException {
                 long bytesRead = super.read(sink, byteCount);
                 // read() returns the number of bytes read, or -1 if this source is exhausted.
-                totalBytesRead += bytesRead != -1 ? bytesRead : 0;
-                progressListener.update(totalBytesRead, responseBody.contentLength(), bytesRead == -1);
+                if (bytesRead == -1) {
+                    if (done) return bytesRead;
+                    done = true;
+                } else {
+                    totalBytesRead += bytesRead;
+                }
+                progressListener.update(totalBytesRead, contentLength(), done);
                 return bytesRead;
             }
         };
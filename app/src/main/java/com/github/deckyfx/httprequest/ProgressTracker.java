@@ -0,0 +1,65 @@
+package com.github.deckyfx.httprequest;
+
+/**
+ * Turns the raw byte counts of a {@link ProgressResponseBody} or {@link ProgressRequestBody} into
+ * throttled {@link TransferProgress} events. An event goes out once both enough time and enough
+ * bytes passed since the previous one, and always at the end. The rate is an exponentially
+ * weighted average of the rate between events.
+ */
+class ProgressTracker implements ProgressResponseBody.ProgressListener {
+    static final long DEFAULT_INTERVAL_MILLIS           = 100;
+    static final long DEFAULT_MIN_BYTES                 = 16 * 1024;
+
+    private static final double SMOOTHING               = 0.3;
+
+    interface Sink {
+        void onProgress(TransferProgress progress);
+    }
+
+    private final TransferProgress.Direction mDirection;
+    private final Sink mSink;
+    private final long mIntervalNanos;
+    private long mLastNanos;
+    private long mLastBytes                             = 0;
+    private double mRate                                = -1;
+    private boolean mDone                               = false;
+
+    ProgressTracker(TransferProgress.Direction direction, Sink sink) {
+        this.mDirection = direction;
+        this.mSink = sink;
+        this.mIntervalNanos = DEFAULT_INTERVAL_MILLIS * 1000000L;
+        this.mLastNanos = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void update(long bytes, long contentLength, boolean done) {
+        long now = System.nanoTime();
+        if (bytes < this.mLastBytes || (this.mDone && !done)) {
+            // The body is being written again, e.g. by a retry
+            this.mLastBytes = 0;
+            this.mLastNanos = now;
+            this.mDone = false;
+        }
+        if (this.mDone) return;
+        long elapsed = now - this.mLastNanos;
+        long delta = bytes - this.mLastBytes;
+        long minBytes = contentLength > 0 ? Math.max(1, Math.min(DEFAULT_MIN_BYTES, contentLength / 100)) : DEFAULT_MIN_BYTES;
+        if (!done && (elapsed < this.mIntervalNanos || delta < minBytes)) {
+            return;
+        }
+        if (elapsed > 0 && delta > 0) {
+            double rate = delta * 1e9 / elapsed;
+            this.mRate = this.mRate < 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * this.mRate;
+        }
+        long eta = -1;
+        if (done) {
+            eta = 0;
+        } else if (contentLength > 0 && this.mRate > 0) {
+            eta = (long) (Math.max(0, contentLength - bytes) * 1000 / this.mRate);
+        }
+        this.mLastNanos = now;
+        this.mLastBytes = bytes;
+        this.mDone = done;
+        this.mSink.onProgress(new TransferProgress(this.mDirection, bytes, contentLength, (long) Math.max(0, this.mRate), eta, done));
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+
+/**
+ * Client-side rate limits, per host or per path prefix, each backed by a token bucket. A call
+ * over the limit waits for its token, or is dropped if the wait would be longer than the max
+ * wait. A 429 or 503 with {@code Retry-After} pauses the matching bucket for that long.
+ */
+public class RateLimiter {
+    public static final long DEFAULT_MAX_WAIT_MILLIS            = 10000;
+
+    private final CopyOnWriteArrayList<Rule> mRules             = new CopyOnWriteArrayList<Rule>();
+    private volatile long mMaxWaitMillis                        = DEFAULT_MAX_WAIT_MILLIS;
+    private final AtomicLong mDelayed                           = new AtomicLong();
+    private final AtomicLong mDropped                           = new AtomicLong();
+
+    /** Limits calls to {@code host} to {@code permitsPerSecond}, allowing bursts of {@code burst}. */
+    public RateLimiter limitHost(String host, double permitsPerSecond, int burst) {
+        if (host == null) throw new NullPointerException("host == null");
+        this.mRules.add(new Rule(host, null, permitsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Limits calls whose path starts with {@code pathPrefix}, on any host. When several rules
+     * match a call, the longest path prefix wins and host rules come last.
+     */
+    public RateLimiter limitPath(String pathPrefix, double permitsPerSecond, int burst) {
+        if (pathPrefix == null) throw new NullPointerException("pathPrefix == null");
+        this.mRules.add(new Rule(null, pathPrefix.startsWith("/") ? pathPrefix : "/" + pathPrefix, permitsPerSecond, burst));
+        return this;
+    }
+
+    /** Calls that would wait longer than this for a token are dropped instead. */
+    public RateLimiter setMaxWaitMillis(long maxWaitMillis) {
+        if (maxWaitMillis < 0) throw new IllegalArgumentException("maxWaitMillis < 0");
+        this.mMaxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    /** Takes a token for {@code url}: returns the wait in milliseconds, or -1 if it must be dropped. */
+    long reserve(HttpUrl url) {
+        Rule rule = this.match(url);
+        if (rule == null) return 0;
+        long wait = rule.mBucket.reserve(this.mMaxWaitMillis);
+        if (wait < 0) {
+            this.mDropped.incrementAndGet();
+        } else if (wait > 0) {
+            this.mDelayed.incrementAndGet();
+        }
+        return wait;
+    }
+
+    /** Wraps {@code delegate} so a {@code Retry-After} from the server pauses the bucket of {@code url}. */
+    Callback track(final HttpUrl url, final Callback delegate) {
+        final Rule rule = this.match(url);
+        if (rule == null) return delegate;
+        return new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                delegate.onFailure(call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                if (response.code() == 429 || response.code() == 503) {
+                    long retryAfter = RetryPolicy.retryAfterMillis(response);
+                    if (retryAfter > 0) rule.mBucket.pause(retryAfter);
+                }
+                delegate.onResponse(call, response);
+            }
+        };
+    }
+
+    /** Number of calls that had to wait for a token. */
+    public long getDelayedCount() {
+        return this.mDelayed.get();
+    }
+
+    /** Number of calls dropped because their wait would have been too long. */
+    public long getDroppedCount() {
+        return this.mDropped.get();
+    }
+
+    private Rule match(HttpUrl url) {
+        Rule best = null;
+        String path = url.encodedPath();
+        for (Rule rule : this.mRules) {
+            if (rule.mPathPrefix != null) {
+                if (path.startsWith(rule.mPathPrefix)
+                        && (best == null || best.mPathPrefix == null || rule.mPathPrefix.length() > best.mPathPrefix.length())) {
+                    best = rule;
+                }
+            } else if (best == null && rule.mHost.equalsIgnoreCase(url.host())) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+
+    private static final class Rule {
+        final String mHost;
+        final String mPathPrefix;
+        final TokenBucket mBucket;
+
+        Rule(String host, String pathPrefix, double permitsPerSecond, int burst) {
+            if (permitsPerSecond <= 0) throw new IllegalArgumentException("permitsPerSecond <= 0");
+            if (burst <= 0) throw new IllegalArgumentException("burst <= 0");
+            this.mHost = host;
+            this.mPathPrefix = pathPrefix;
+            this.mBucket = new TokenBucket(burst, permitsPerSecond);
+        }
+    }
+}
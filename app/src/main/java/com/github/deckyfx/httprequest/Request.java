@@ -22,8 +22,6 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
@@ -31,11 +29,20 @@ import android.webkit.MimeTypeMap;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import okhttp3.CacheControl;
 import okhttp3.Call;
@@ -49,12 +56,32 @@ import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.internal.Util;
+import okio.Buffer;
+import okio.BufferedSource;
 
 /**
  * An HTTP request. Instances of this class are immutable if their {@link #body} is null or itself
  * immutable.
  */
-public class Request implements Callback {
+public class Request implements Callback, CallOwner {
+    public static final int DEFAULT_ELEMENT_BATCH_SIZE          = 50;
+    public static final long ELEMENT_BATCH_MILLIS               = 100;
+
+    /** Scheduling class of a request, from the most to the least urgent. */
+    public enum Priority {
+        /** User is waiting on it, never shed. */
+        IMMEDIATE,
+        NORMAL,
+        /** Speculative loads, shed when the queue is deep. */
+        PREFETCH,
+        /** Analytics, sync and other deferrable work, shed first. */
+        BACKGROUND;
+
+        boolean isSheddable() {
+            return this == PREFETCH || this == BACKGROUND;
+        }
+    }
+
     // Inherited from Request
     private HttpUrl url                         = null;
     private String method                       = "";
@@ -62,15 +89,45 @@ public class Request implements Callback {
     private @Nullable RequestBody body          = null;
     private Object tag                          = null;
 
-    private Context ctx                         = null;
+    private WeakReference<Context> ctx          = null;
     private String path                         = null;
     private DBHelper db                         = null;
     private ArrayList<KeyValuePair> params      = null;
     private ArrayList<KeyValuePair> queries     = null;
     private volatile CacheControl cacheControl  = null; // Lazily initialized.
-    private RequestListener requestHandler      = null;
+    private volatile RequestListener requestHandler = null;
     private Call call                           = null;
     private boolean isFinished                  = false;
+    private CallbackDispatcher callbackDispatcher = null;
+    private Executor callbackExecutor           = null;
+    private Priority priority                   = Priority.NORMAL;
+    private boolean hedged                      = false;
+    private long hedgeDelayMillis               = -1;
+    private RetryPolicy retryPolicy             = null;
+    private long connectTimeoutMillis           = 0;
+    private long readTimeoutMillis              = 0;
+    private long writeTimeoutMillis             = 0;
+    private long deadlineMillis                 = 0;
+    private String supersedeKey                 = null;
+    private long debounceMillis                 = 0;
+    private ResponseDecoder<?> decoder          = null;
+    private FileDownload download               = null;
+    private long spillThreshold                 = 0;
+    private ElementDecoder<?> elementDecoder    = null;
+    private int elementBatchSize                = 0;
+    private volatile CallDeadline deadline      = null;
+    private final ArrayList<Call> calls         = new ArrayList<Call>();
+    private volatile boolean canceled           = false;
+    private volatile RequestCoalescer.InFlightCall coalescedCall = null;
+    private volatile Runnable completionHook    = null;
+    private volatile Request sent               = null;
+    private final AtomicBoolean completed       = new AtomicBoolean();
+    private final AtomicBoolean expiryClaimed   = new AtomicBoolean();
+    private ArrayList<Runnable> deliveryBatch   = null;
+    private int deliveryDepth                   = 0;
+    private volatile boolean queuedOffline      = false;
+    private final AtomicReference<TransferProgress> pendingUpload   = new AtomicReference<TransferProgress>();
+    private final AtomicReference<TransferProgress> pendingDownload = new AtomicReference<TransferProgress>();
 
     Request(Builder builder) {
         this.url                                = builder.url;
@@ -79,7 +136,7 @@ public class Request implements Callback {
         this.body                               = builder.body;
         this.tag                                = builder.tag != null ? builder.tag : this;
 
-        this.ctx                                = builder.ctx;
+        this.ctx                                = builder.ctx != null ? new WeakReference<Context>(builder.ctx) : null;
         this.path                               = builder.path;
         this.db                                 = builder.db;
         this.params                             = builder.params;
@@ -87,6 +144,22 @@ public class Request implements Callback {
         this.requestHandler                     = builder.requestHandler;
         this.call                               = builder.call;
         this.cacheControl                       = builder.cacheControl;
+        this.callbackDispatcher                 = builder.callbackDispatcher;
+        this.priority                           = builder.priority;
+        this.hedged                             = builder.hedged;
+        this.hedgeDelayMillis                   = builder.hedgeDelayMillis;
+        this.retryPolicy                        = builder.retryPolicy;
+        this.connectTimeoutMillis               = builder.connectTimeoutMillis;
+        this.readTimeoutMillis                  = builder.readTimeoutMillis;
+        this.writeTimeoutMillis                 = builder.writeTimeoutMillis;
+        this.deadlineMillis                     = builder.deadlineMillis;
+        this.supersedeKey                       = builder.supersedeKey;
+        this.debounceMillis                     = builder.debounceMillis;
+        this.decoder                            = builder.decoder;
+        this.download                           = builder.download;
+        this.spillThreshold                     = builder.spillThreshold;
+        this.elementDecoder                     = builder.elementDecoder;
+        this.elementBatchSize                   = builder.elementBatchSize;
     }
 
     public HttpUrl url() {
@@ -118,6 +191,31 @@ public class Request implements Callback {
         return this.tag;
     }
 
+    /** The body to send, counting the upload when the listener wants progress. */
+    RequestBody uploadBody() {
+        if (this.body == null || !(this.requestHandler instanceof ProgressRequestListener)) {
+            return this.body;
+        }
+        return new ProgressRequestBody(this.body, this.progressTracker(TransferProgress.Direction.UPLOAD));
+    }
+
+    private Response trackDownload(Response response) {
+        if (response.body() == null || !(this.requestHandler instanceof ProgressRequestListener)) {
+            return response;
+        }
+        ProgressResponseBody body = new ProgressResponseBody(response.body(), this.progressTracker(TransferProgress.Direction.DOWNLOAD));
+        return response.newBuilder().body(body).build();
+    }
+
+    private ProgressTracker progressTracker(TransferProgress.Direction direction) {
+        return new ProgressTracker(direction, new ProgressTracker.Sink() {
+            @Override
+            public void onProgress(TransferProgress progress) {
+                Request.this.onProgress(progress);
+            }
+        });
+    }
+
     public Builder newBuilder() {
         return new Builder(this);
     }
@@ -146,8 +244,9 @@ public class Request implements Callback {
         return this.path;
     }
 
+    /** The owning Context, or null once it has been garbage collected. */
     public Context context(){
-        return this.ctx;
+        return this.ctx != null ? this.ctx.get() : null;
     }
 
     public DBHelper dbHelper(){
@@ -162,6 +261,204 @@ public class Request implements Callback {
         return this.call;
     }
 
+    public CallbackDispatcher callbackDispatcher() {
+        return this.callbackDispatcher;
+    }
+
+    public Priority priority() {
+        return this.priority;
+    }
+
+    public boolean isHedged() {
+        return this.hedged;
+    }
+
+    public long hedgeDelayMillis() {
+        return this.hedgeDelayMillis;
+    }
+
+    public RetryPolicy retryPolicy() {
+        return this.retryPolicy;
+    }
+
+    public long connectTimeoutMillis() {
+        return this.connectTimeoutMillis;
+    }
+
+    public long readTimeoutMillis() {
+        return this.readTimeoutMillis;
+    }
+
+    public long writeTimeoutMillis() {
+        return this.writeTimeoutMillis;
+    }
+
+    public long deadlineMillis() {
+        return this.deadlineMillis;
+    }
+
+    public String supersedeKey() {
+        return this.supersedeKey;
+    }
+
+    public long debounceMillis() {
+        return this.debounceMillis;
+    }
+
+    public ResponseDecoder<?> decoder() {
+        return this.decoder;
+    }
+
+    public long spillThreshold() {
+        return this.spillThreshold;
+    }
+
+    public ElementDecoder<?> elementDecoder() {
+        return this.elementDecoder;
+    }
+
+    /**
+     * True if the body must be read from this request's own call: downloads, element streams,
+     * spilling and listeners taking the pooled buffer or progress. Such requests are never
+     * coalesced, a shared call reads its body into one plain array.
+     */
+    boolean readsOwnBody() {
+        RequestListener listener = this.requestHandler;
+        return this.download != null || this.elementDecoder != null || this.spillThreshold > 0
+                || listener instanceof BufferRequestListener || listener instanceof ProgressRequestListener
+                || listener instanceof SpilledBodyListener;
+    }
+
+    /** Target file of a download request, null for a regular request. */
+    public File downloadFile() {
+        return this.download != null ? this.download.file() : null;
+    }
+
+    FileDownload download() {
+        return this.download;
+    }
+
+    CallDeadline deadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Starts the end-to-end deadline clock, called once when the request is sent. When it passes
+     * {@code unqueue} takes the request out of wherever it still waits, then it times out.
+     */
+    void startDeadline(final Runnable unqueue) {
+        if (this.deadlineMillis > 0 && this.deadline == null) {
+            this.deadline = new CallDeadline(this.deadlineMillis, new Runnable() {
+                @Override
+                public void run() {
+                    if (completed.get()) return;
+                    if (unqueue != null) unqueue.run();
+                    // Queued, waiting for a token or for a retry, no call would ever report it
+                    onDropped(ErrorString.REQUEST_TIMEOUT);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void attachCall(Call call) {
+        synchronized (this.calls) {
+            if (!this.canceled) {
+                this.calls.add(call);
+                return;
+            }
+        }
+        call.cancel();
+    }
+
+    void setCoalescedCall(RequestCoalescer.InFlightCall coalescedCall) {
+        this.coalescedCall = coalescedCall;
+    }
+
+    /** Runs {@code hook} once when the request finishes, fails to reach the network or is cancelled. */
+    void setCompletionHook(Runnable hook) {
+        this.completionHook = hook;
+    }
+
+    /** Links the request the caller holds to the copy the client sends, so cancelling either works. */
+    void setSent(Request sent) {
+        this.sent = sent;
+        if (this.canceled) sent.cancel();
+    }
+
+    private void complete() {
+        CallDeadline deadline = this.deadline;
+        if (deadline != null) {
+            deadline.finish();
+        }
+        if (this.completed.compareAndSet(false, true)) {
+            Runnable hook = this.completionHook;
+            if (hook != null) hook.run();
+            // Inside a delivery the listener is let go after its callbacks, see endDelivery
+            if (this.deliveryDepth == 0) this.requestHandler = null;
+        }
+    }
+
+    /**
+     * Cancels this request: its calls are cancelled and no further listener callback is made. A
+     * call shared with coalesced requests is only cancelled once all of them are.
+     */
+    public void cancel() {
+        ArrayList<Call> toCancel;
+        synchronized (this.calls) {
+            if (this.canceled) return;
+            this.canceled = true;
+            toCancel = new ArrayList<Call>(this.calls);
+            this.calls.clear();
+        }
+        for (Call call : toCancel) {
+            call.cancel();
+        }
+        Request sent = this.sent;
+        if (sent != null) {
+            sent.cancel();
+        }
+        // The listener is often an Activity or captures one, let it go with the request
+        this.requestHandler = null;
+        RequestCoalescer.InFlightCall coalescedCall = this.coalescedCall;
+        if (coalescedCall != null) {
+            coalescedCall.onRequestCanceled();
+        }
+        if (this.deadline != null) {
+            this.deadline.finish();
+        }
+        this.complete();
+    }
+
+    void setQueuedOffline() {
+        this.queuedOffline = true;
+    }
+
+    /**
+     * True if the request failed with a network error but was stored in the client's offline
+     * outbox, it will be sent again once the device is back online.
+     */
+    public boolean isQueuedOffline() {
+        Request sent = this.sent;
+        return sent != null ? sent.isQueuedOffline() : this.queuedOffline;
+    }
+
+    @Override
+    public boolean isCanceled() {
+        Request sent = this.sent;
+        return this.canceled || (sent != null && sent.isCanceled());
+    }
+
+    boolean isDeadlineExceeded() {
+        CallDeadline deadline = this.deadline;
+        return deadline != null && deadline.isExpired();
+    }
+
+    /** Past the deadline the call and the expiry race, only the first one delivers an outcome. */
+    private boolean claimOutcome() {
+        return !this.isDeadlineExceeded() || this.expiryClaimed.compareAndSet(false, true);
+    }
+
     private String generateSimpleParam(ArrayList<KeyValuePair> params) {
         StringBuilder sb = new StringBuilder();
         for (KeyValuePair param : this.params) {
@@ -176,10 +473,24 @@ public class Request implements Callback {
 
     @Override
     public void onFailure(Call call, IOException e) {
-        if (call.isCanceled()) {
+        this.beginDelivery();
+        try {
+            this.handleFailure(call, e);
+        } finally {
+            this.endDelivery();
+        }
+    }
+
+    private void handleFailure(Call call, IOException e) {
+        if (this.canceled) {
             return;
         }
-        if (!this.validContext()) {
+        if (call.isCanceled() && !this.isDeadlineExceeded()) {
+            return;
+        }
+        if (!this.validContext() || !this.claimOutcome()) {
+            // Nobody left to tell, still leave the client's index
+            this.complete();
             return;
         }
         this.call = call;
@@ -187,11 +498,13 @@ public class Request implements Callback {
         if (e != null) {
             if (errorMessage.equals(ErrorString.REQUEST_FAILED)) {
                 // Skip general error content if there is previous error
+                this.complete();
                 return;
             } else if (errorMessage.equals(ErrorString.NULL_CONTENTS)) {
                 // Skip null contents error content if there is previous error
+                this.complete();
                 return;
-            } else if (e instanceof java.net.SocketTimeoutException) {
+            } else if (e instanceof java.net.SocketTimeoutException || this.isDeadlineExceeded()) {
                 errorMessage = ErrorString.REQUEST_TIMEOUT;
             } else {
 
@@ -213,27 +526,249 @@ public class Request implements Callback {
     @Override
     public void onResponse(Call call, Response response) throws IOException {
         if (call.isCanceled()) {
+            this.onCanceled(call);
             return;
         }
-        if (!this.validContext()) {
+        if (!this.validContext() || !this.claimOutcome()) {
+            Util.closeQuietly(response);
+            this.complete();
             return;
         }
-        this.call = call;
-        byte[] response_bytes = new byte[0];
+        response = this.trackDownload(response);
+        if (this.download != null) {
+            if (response.code() == 200 || response.code() == 206) {
+                this.onDownload(call, response);
+                return;
+            }
+            if (response.code() == 416) {
+                // The partial file does not fit the resource any more
+                this.download.discard();
+            }
+        }
+        RequestListener listener = this.requestHandler;
+        if (listener instanceof StreamingRequestListener && response.isSuccessful()) {
+            this.onStream(call, response, response.body().source(), (StreamingRequestListener) listener);
+            return;
+        }
+        if (this.elementDecoder != null && response.isSuccessful()) {
+            this.onElements(call, response, response.body().source());
+            return;
+        }
+        if (this.decoder != null && this.db == null && (response.code() == 200 || response.code() == 230)) {
+            // Nothing to cache, decode from the network without holding the body in memory
+            this.onDecode(call, response, response.body().source());
+            return;
+        }
+        long spill_threshold = response.isSuccessful() ? this.spillThreshold : 0;
+        long content_length = response.body().contentLength();
+        if (spill_threshold > 0 && content_length > spill_threshold) {
+            try {
+                this.onSpill(call, response, null, response.body().source());
+            } finally {
+                Util.closeQuietly(response.body());
+            }
+            return;
+        }
+        // Read into a pooled array, every caller below is done with it when they return
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer response_buffer = ByteBuffer.wrap(new byte[0]);
         try {
-            response_bytes = response.body().bytes();
+            response_buffer = pool.read(response.body().source(), content_length, spill_threshold > 0 ? spill_threshold : -1);
+            if (spill_threshold > 0 && response_buffer.remaining() > spill_threshold) {
+                // No length up front and more than fits, move what was read on to disk
+                try {
+                    this.onSpill(call, response, response_buffer, response.body().source());
+                } finally {
+                    pool.release(response_buffer);
+                }
+                return;
+            }
         } catch (IOException e) {
+            if (ErrorString.RESPONSE_TOO_LARGE.equals(e.getMessage())) {
+                this.onFailure(call, e);
+                return;
+            }
             e.printStackTrace();
+        } finally {
+            Util.closeQuietly(response.body());
+        }
+        try {
+            this.onResponse(call, response, response_buffer);
+        } finally {
+            pool.release(response_buffer);
+        }
+    }
+
+    private void onElements(Call call, Response response, BufferedSource source) {
+        // Batches are posted while parsing, only the outcome is delivered as one batch
+        IOException error = null;
+        try {
+            ElementBatcher batcher = new ElementBatcher();
+            this.decodeElements(source, charset(response), batcher);
+            batcher.flush();
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            Util.closeQuietly(source);
+        }
+        this.beginDelivery();
+        try {
+            this.handleElements(call, response, error);
+        } finally {
+            this.endDelivery();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void decodeElements(BufferedSource source, Charset charset, ElementBatcher batcher) throws IOException {
+        ((ElementDecoder<Object>) this.elementDecoder).decode(source, charset, batcher);
+    }
+
+    private void handleElements(Call call, Response response, IOException error) {
+        if (this.canceled) {
+            return;
+        }
+        if (call.isCanceled()) {
+            this.onCanceled(call);
+            return;
+        }
+        this.call = call;
+        this.onFinish();
+        if (error != null) {
+            this.onFail(error);
+            return;
+        }
+        this.onSuccess(response, null);
+    }
+
+    /** Collects parsed elements and posts them once the batch is full or has waited long enough. */
+    private final class ElementBatcher implements ElementDecoder.Sink<Object> {
+        private ArrayList<Object> mElements                 = new ArrayList<Object>();
+        private long mLastFlushNanos                        = System.nanoTime();
+
+        @Override
+        public void onElement(Object element) throws IOException {
+            if (canceled) throw new InterruptedIOException("Canceled");
+            this.mElements.add(element);
+            if (this.mElements.size() >= elementBatchSize
+                    || System.nanoTime() - this.mLastFlushNanos >= ELEMENT_BATCH_MILLIS * 1000000L) {
+                this.flush();
+            }
+        }
+
+        void flush() {
+            this.mLastFlushNanos = System.nanoTime();
+            if (this.mElements.isEmpty()) return;
+            List<Object> batch = this.mElements;
+            this.mElements = new ArrayList<Object>();
+            onElementBatch(batch);
+        }
+    }
+
+    private void onSpill(Call call, Response response, ByteBuffer head, BufferedSource source) {
+        if (!(this.requestHandler instanceof SpilledBodyListener)) {
+            this.onFailure(call, new IOException(ErrorString.RESPONSE_TOO_LARGE));
+            return;
+        }
+        SpilledBody body;
+        try {
+            Context ctx = this.context();
+            body = SpilledBody.spill(ctx != null ? ctx.getCacheDir() : null, head, source);
+        } catch (IOException e) {
+            this.onFailure(call, e);
+            return;
+        }
+        this.beginDelivery();
+        try {
+            this.handleSpill(call, response, body);
+        } finally {
+            this.endDelivery();
+        }
+    }
+
+    private void handleSpill(Call call, Response response, SpilledBody body) {
+        if (this.canceled || call.isCanceled()) {
+            body.delete();
+            if (call.isCanceled()) this.onCanceled(call);
+            return;
+        }
+        this.call = call;
+        this.onFinish();
+        this.onSuccess(response, null);
+        this.onSpilled(response, body);
+    }
+
+    /**
+     * Handles a response whose body has already been read, this is also used when one body is
+     * shared between several coalesced requests.
+     */
+    void onResponse(Call call, Response response, byte[] response_bytes) {
+        this.onResponse(call, response, ByteBuffer.wrap(response_bytes != null ? response_bytes : new byte[0]));
+    }
+
+    private void onResponse(Call call, Response response, ByteBuffer response_buffer) {
+        RequestListener listener = this.requestHandler;
+        if (listener instanceof StreamingRequestListener && response.isSuccessful()) {
+            Buffer source = new Buffer();
+            source.write(response_buffer.array(), response_buffer.arrayOffset() + response_buffer.position(), response_buffer.remaining());
+            this.onStream(call, response, source, (StreamingRequestListener) listener);
+            return;
         }
+        this.beginDelivery();
+        try {
+            if (listener instanceof BufferRequestListener && response.isSuccessful()) {
+                this.handleBuffer(call, response, response_buffer, (BufferRequestListener) listener);
+            } else {
+                this.handleResponse(call, response, response_buffer);
+            }
+        } finally {
+            this.endDelivery();
+        }
+    }
+
+    private void handleBuffer(Call call, Response response, ByteBuffer response_buffer, BufferRequestListener listener) {
+        if (this.canceled) {
+            return;
+        }
+        if (call.isCanceled()) {
+            this.onCanceled(call);
+            return;
+        }
+        this.call = call;
+        try {
+            listener.onHTTPRequestBuffer(this, response, response_buffer.duplicate());
+        } catch (IOException e) {
+            this.onFinish();
+            this.onFail(e);
+            return;
+        }
+        this.onFinish();
+        this.onSuccess(response, null);
+    }
+
+    private void handleResponse(Call call, Response response, ByteBuffer response_buffer) {
+        if (this.canceled) {
+            return;
+        }
+        if (call.isCanceled()) {
+            this.onCanceled(call);
+            return;
+        }
+        if (!this.validContext()) {
+            this.complete();
+            return;
+        }
+        this.call = call;
         int request_code = response.code();
         String url = call.request().url().toString();
         String message = response.message();
         String param_str = this.generateSimpleParam(this.params);
         String errorMessage = "";
         String responMessage = "";
-        if (response_bytes != null) {
-            responMessage = new String(response_bytes);
-        }
+        byte[] response_bytes = response_buffer.array();
+        int response_offset = response_buffer.arrayOffset() + response_buffer.position();
+        int response_length = response_buffer.remaining();
+        responMessage = new String(response_bytes, response_offset, response_length, charset(response));
         if ((request_code != 200 && request_code != 230)) {
             if (responMessage.length() == 0) {
                 errorMessage = ErrorString.NULL_CONTENTS;
@@ -260,11 +795,171 @@ public class Request implements Callback {
                 this.onRescue(responMessage);
             }
         } else {
+            Object result = null;
+            if (this.decoder != null) {
+                try {
+                    result = this.decoder.decode(new Buffer().write(response_bytes, response_offset, response_length), charset(response));
+                } catch (IOException e) {
+                    this.onFinish();
+                    this.onFail(e);
+                    return;
+                }
+            }
             this.onFinish();
             if (this.db != null) {
                 this.db.saveResponseToCache(url, call.request().method(), param_str, responMessage);
             }
             this.onSuccess(response, responMessage);
+            if (this.decoder != null) {
+                this.onResult(response, result);
+            }
+        }
+    }
+
+    private void onStream(Call call, Response response, BufferedSource source, StreamingRequestListener listener) {
+        this.beginDelivery();
+        try {
+            this.handleStream(call, response, source, listener);
+        } finally {
+            Util.closeQuietly(source);
+            this.endDelivery();
+        }
+    }
+
+    private void handleStream(Call call, Response response, BufferedSource source, StreamingRequestListener listener) {
+        if (this.canceled) {
+            return;
+        }
+        if (call.isCanceled()) {
+            this.onCanceled(call);
+            return;
+        }
+        this.call = call;
+        try {
+            listener.onHTTPRequestStream(this, response, source);
+        } catch (IOException e) {
+            if (call.isCanceled()) {
+                this.onCanceled(call);
+                return;
+            }
+            this.onFinish();
+            this.onFail(e);
+            return;
+        }
+        this.onFinish();
+        this.onSuccess(response, null);
+    }
+
+    private void onDownload(Call call, Response response) {
+        this.beginDelivery();
+        try {
+            this.handleDownload(call, response);
+        } finally {
+            Util.closeQuietly(response);
+            this.endDelivery();
+        }
+    }
+
+    private void handleDownload(Call call, Response response) {
+        if (this.canceled) {
+            return;
+        }
+        if (call.isCanceled()) {
+            this.onCanceled(call);
+            return;
+        }
+        this.call = call;
+        String checksum;
+        try {
+            checksum = this.download.write(response);
+        } catch (IOException e) {
+            if (call.isCanceled()) {
+                this.onCanceled(call);
+                return;
+            }
+            this.onFinish();
+            this.onFail(e);
+            return;
+        }
+        this.onFinish();
+        this.onSuccess(response, null);
+        this.onDownloaded(response, this.download.file(), checksum);
+    }
+
+    private void onDecode(Call call, Response response, BufferedSource source) {
+        this.beginDelivery();
+        try {
+            this.handleDecode(call, response, source);
+        } finally {
+            Util.closeQuietly(source);
+            this.endDelivery();
+        }
+    }
+
+    private void handleDecode(Call call, Response response, BufferedSource source) {
+        if (this.canceled) {
+            return;
+        }
+        if (call.isCanceled()) {
+            this.onCanceled(call);
+            return;
+        }
+        this.call = call;
+        Object result;
+        try {
+            result = this.decoder.decode(source, charset(response));
+        } catch (IOException e) {
+            if (call.isCanceled()) {
+                this.onCanceled(call);
+                return;
+            }
+            this.onFinish();
+            this.onFail(e);
+            return;
+        }
+        this.onFinish();
+        this.onSuccess(response, null);
+        this.onResult(response, result);
+    }
+
+    /** Charset of the response body, UTF-8 when the server does not name one. */
+    static Charset charset(Response response) {
+        MediaType contentType = response.body() != null ? response.body().contentType() : null;
+        return contentType != null ? contentType.charset(Util.UTF_8) : Util.UTF_8;
+    }
+
+    private void onCanceled(Call call) {
+        // Canceled by the deadline while reading the body, still owes the listener an outcome
+        if (this.isDeadlineExceeded()) {
+            this.onFailure(call, new InterruptedIOException(ErrorString.REQUEST_TIMEOUT));
+        }
+    }
+
+    /**
+     * Finishes the request without a network call, e.g. when it was shed by the scheduler or its
+     * host's circuit is open, and rescues it from the cache when possible.
+     */
+    void onDropped(String reason) {
+        this.beginDelivery();
+        try {
+            this.handleDropped(reason);
+        } finally {
+            this.endDelivery();
+        }
+    }
+
+    private void handleDropped(String reason) {
+        if (this.canceled || !this.validContext() || !this.claimOutcome()) {
+            this.complete();
+            return;
+        }
+        this.onFinish();
+        this.onFail(new Exception(reason));
+        if (this.db != null && this.url != null) {
+            String responseMessage = this.db.loadResponseFromCache(this.url.toString(), this.method(), this.generateSimpleParam(this.params));
+            if (responseMessage.length() > 0) {
+                this.onRescue(responseMessage);
+            }
         }
     }
 
@@ -273,7 +968,8 @@ public class Request implements Callback {
         this.safeRun(new Runnable() {
             @Override
             public void run() {
-                requestHandler.onHTTPRequestStart(me);
+                RequestListener listener = requestHandler;
+                if (listener != null) listener.onHTTPRequestStart(me);
             }
         });
     }
@@ -281,10 +977,15 @@ public class Request implements Callback {
     protected void onFinish() {
         final Request me = this;
         this.isFinished = true;
+        if (this.deadline != null) {
+            this.deadline.finish();
+        }
+        this.complete();
         this.safeRun(new Runnable() {
             @Override
             public void run() {
-                requestHandler.onHTTPRequestFinish(me);
+                RequestListener listener = requestHandler;
+                if (listener != null) listener.onHTTPRequestFinish(me);
             }
         });
     }
@@ -294,7 +995,8 @@ public class Request implements Callback {
         this.safeRun(new Runnable() {
             @Override
             public void run() {
-                requestHandler.onHTTPRequestSuccess(me, response, responMessage);
+                RequestListener listener = requestHandler;
+                if (listener != null) listener.onHTTPRequestSuccess(me, response, responMessage);
             }
         });
     }
@@ -304,33 +1006,149 @@ public class Request implements Callback {
         this.safeRun(new Runnable() {
             @Override
             public void run() {
-                requestHandler.onHTTPRequestFailure(me, error);
+                RequestListener listener = requestHandler;
+                if (listener != null) listener.onHTTPRequestFailure(me, error);
             }
         });
     }
 
     protected void onRescue(final String recoveredResponse) {
-        if (this.ctx == null) return;
+        if (this.context() == null) return;
+        final Request me = this;
+        this.safeRun(new Runnable() {
+            @Override
+            public void run() {
+                RequestListener listener = requestHandler;
+                if (listener != null) listener.onHTTPRequestRescue(me, recoveredResponse);
+            }
+        });
+        if (this.decoder != null) {
+            // Decoded here, on the thread that loaded it, so the listener never parses it
+            try {
+                Buffer source = new Buffer().writeUtf8(recoveredResponse);
+                this.onRescueResult(this.decoder.decode(source, Util.UTF_8));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    protected void onDownloaded(final Response response, final File file, final String checksum) {
         final Request me = this;
         this.safeRun(new Runnable() {
             @Override
             public void run() {
-                requestHandler.onHTTPRequestRescue(me, recoveredResponse);
+                RequestListener listener = requestHandler;
+                if (listener instanceof DownloadListener) {
+                    ((DownloadListener) listener).onHTTPRequestDownloaded(me, response, file, checksum);
+                }
             }
         });
     }
 
-    protected void onNetworkError() {
-        if (this.ctx == null) return;
+    @SuppressWarnings("unchecked")
+    protected void onElementBatch(final List<Object> elements) {
+        final Request me = this;
+        this.safeRun(new Runnable() {
+            @Override
+            public void run() {
+                RequestListener listener = requestHandler;
+                if (listener instanceof ElementListener) {
+                    ((ElementListener<Object>) listener).onHTTPRequestElements(me, elements);
+                }
+            }
+        });
+    }
+
+    protected void onSpilled(final Response response, final SpilledBody body) {
+        final Request me = this;
+        this.safeRun(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RequestListener listener = requestHandler;
+                    if (listener instanceof SpilledBodyListener) {
+                        ((SpilledBodyListener) listener).onHTTPRequestSpilled(me, response, body);
+                    }
+                } finally {
+                    body.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Posts {@code progress} unless an earlier progress of the same direction is still waiting
+     * to be delivered, that one then delivers the latest instead.
+     */
+    protected void onProgress(TransferProgress progress) {
+        final AtomicReference<TransferProgress> pending = progress.direction() == TransferProgress.Direction.UPLOAD
+                ? this.pendingUpload : this.pendingDownload;
+        if (pending.getAndSet(progress) != null) {
+            return;
+        }
+        if (this.canceled || !this.validContext()) {
+            return;
+        }
+        final Request me = this;
+        this.post(new Runnable() {
+            @Override
+            public void run() {
+                TransferProgress latest = pending.getAndSet(null);
+                RequestListener listener = requestHandler;
+                if (latest != null && !canceled && listener instanceof ProgressRequestListener) {
+                    ((ProgressRequestListener) listener).onHTTPRequestProgress(me, latest);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void onResult(final Response response, final Object result) {
+        final Request me = this;
+        this.safeRun(new Runnable() {
+            @Override
+            public void run() {
+                RequestListener listener = requestHandler;
+                if (listener instanceof TypedRequestListener) {
+                    ((TypedRequestListener<Object>) listener).onHTTPRequestResult(me, response, result);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void onRescueResult(final Object result) {
         final Request me = this;
         this.safeRun(new Runnable() {
             @Override
             public void run() {
-                requestHandler.onHTTPRequestNetworkError(me);
+                RequestListener listener = requestHandler;
+                if (listener instanceof TypedRequestListener) {
+                    ((TypedRequestListener<Object>) listener).onHTTPRequestRescueResult(me, result);
+                }
             }
         });
     }
 
+    protected void onNetworkError() {
+        this.beginDelivery();
+        try {
+            this.complete();
+            if (this.context() == null) return;
+            final Request me = this;
+            this.safeRun(new Runnable() {
+                @Override
+                public void run() {
+                    RequestListener listener = requestHandler;
+                    if (listener != null) listener.onHTTPRequestNetworkError(me);
+                }
+            });
+        } finally {
+            this.endDelivery();
+        }
+    }
+
     public static class Builder {
         private Context ctx                         = null;
         private HttpUrl url                         = null;
@@ -348,6 +1166,22 @@ public class Request implements Callback {
         private boolean isFinished                  = false;
         private boolean containFile                 = false;
         private long contentLength                  = 0;
+        private CallbackDispatcher callbackDispatcher = null;
+        private Priority priority                   = Priority.NORMAL;
+        private boolean hedged                      = false;
+        private long hedgeDelayMillis               = -1;
+        private RetryPolicy retryPolicy             = null;
+        private long connectTimeoutMillis           = 0;
+        private long readTimeoutMillis              = 0;
+        private long writeTimeoutMillis             = 0;
+        private long deadlineMillis                 = 0;
+        private String supersedeKey                 = null;
+        private long debounceMillis                 = 0;
+        private ResponseDecoder<?> decoder          = null;
+        private FileDownload download               = null;
+        private long spillThreshold                 = 0;
+        private ElementDecoder<?> elementDecoder    = null;
+        private int elementBatchSize                = 0;
 
         public Builder() {
             super();
@@ -363,7 +1197,7 @@ public class Request implements Callback {
         }
 
         public Builder(Request request) {
-            this.ctx                                = request.ctx;
+            this.ctx                                = request.context();
             this.url                                = request.url;
             this.path                               = request.path;
             this.method                             = request.method;
@@ -376,6 +1210,22 @@ public class Request implements Callback {
             this.requestHandler                     = request.requestHandler;
             this.cacheControl                       = request.cacheControl;
             this.call                               = request.call;
+            this.callbackDispatcher                 = request.callbackDispatcher;
+            this.priority                           = request.priority;
+            this.hedged                             = request.hedged;
+            this.hedgeDelayMillis                   = request.hedgeDelayMillis;
+            this.retryPolicy                        = request.retryPolicy;
+            this.connectTimeoutMillis               = request.connectTimeoutMillis;
+            this.readTimeoutMillis                  = request.readTimeoutMillis;
+            this.writeTimeoutMillis                 = request.writeTimeoutMillis;
+            this.deadlineMillis                     = request.deadlineMillis;
+            this.supersedeKey                       = request.supersedeKey;
+            this.debounceMillis                     = request.debounceMillis;
+            this.decoder                            = request.decoder;
+            this.download                           = request.download;
+            this.spillThreshold                     = request.spillThreshold;
+            this.elementDecoder                     = request.elementDecoder;
+            this.elementBatchSize                   = request.elementBatchSize;
         }
 
         public Builder context(Context ctx){
@@ -606,6 +1456,67 @@ public class Request implements Callback {
             return this;
         }
 
+        /**
+         * Decodes the response body on the OkHttp thread, a {@link TypedRequestListener} then
+         * gets the result. Without a DB cache the body is decoded straight from the network.
+         */
+        public Builder decoder(ResponseDecoder<?> decoder) {
+            this.decoder = decoder;
+            return this;
+        }
+
+        /**
+         * Parses a successful response body element by element while it downloads, an
+         * {@link ElementListener} gets them in batches of up to {@link Request#DEFAULT_ELEMENT_BATCH_SIZE}.
+         */
+        public Builder streamElements(ElementDecoder<?> decoder) {
+            return this.streamElements(decoder, DEFAULT_ELEMENT_BATCH_SIZE);
+        }
+
+        /**
+         * Like {@link #streamElements(ElementDecoder)} with batches of up to {@code batchSize}. A
+         * batch also goes out once {@link Request#ELEMENT_BATCH_MILLIS} passed since the previous one.
+         */
+        public Builder streamElements(ElementDecoder<?> decoder, int batchSize) {
+            if (batchSize <= 0) throw new IllegalArgumentException("batchSize <= 0");
+            this.elementDecoder = decoder;
+            this.elementBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Writes successful response bodies over {@code bytes} to a temporary file instead of
+         * memory, a {@link SpilledBodyListener} then gets the file. Other listeners get a
+         * {@link ErrorString#RESPONSE_TOO_LARGE} failure. 0 keeps every body in memory.
+         */
+        public Builder spillThreshold(long bytes) {
+            if (bytes < 0) throw new IllegalArgumentException("bytes < 0");
+            this.spillThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Streams the response body into {@code file} instead of memory. An interrupted download
+         * resumes from where it stopped the next time the request is sent.
+         */
+        public Builder download(File file) {
+            return this.download(file, null, null);
+        }
+
+        /** Also computes the {@code algorithm} checksum, "CRC32" or a MessageDigest name like "SHA-256". */
+        public Builder download(File file, String algorithm) {
+            return this.download(file, algorithm, null);
+        }
+
+        /** Also fails the download, and throws the file away, if its checksum is not {@code expectedChecksum}. */
+        public Builder download(File file, String algorithm, String expectedChecksum) {
+            if (file == null) throw new NullPointerException("file == null");
+            if (algorithm != null) new FileDownload.Checksum(algorithm);
+            if (expectedChecksum != null && algorithm == null) throw new IllegalArgumentException("expectedChecksum without algorithm");
+            this.download = new FileDownload(file, algorithm, expectedChecksum);
+            return this;
+        }
+
         public Builder body(RequestBody body) {
             this.body = body;
             return this;
@@ -616,6 +1527,121 @@ public class Request implements Callback {
             return this;
         }
 
+        /**
+         * Sets the dispatcher used to deliver this request's callbacks. If unset, the client's
+         * dispatcher is used, falling back to {@link CallbackDispatcher#getDefault()}.
+         */
+        public Builder callbackDispatcher(CallbackDispatcher callbackDispatcher) {
+            this.callbackDispatcher = callbackDispatcher;
+            return this;
+        }
+
+        public CallbackDispatcher getCallbackDispatcher() {
+            return this.callbackDispatcher;
+        }
+
+        /**
+         * Marks a GET or HEAD request as hedgeable: if it has not answered after the host's p95
+         * latency, a second copy is sent and the first answer wins. Needs hedging enabled on the
+         * client.
+         */
+        public Builder hedge(boolean hedged) {
+            this.hedged = hedged;
+            return this;
+        }
+
+        /** Hedges after a fixed {@code delayMillis} instead of the host's observed p95. */
+        public Builder hedge(long delayMillis) {
+            if (delayMillis < 0) throw new IllegalArgumentException("delayMillis < 0");
+            this.hedged = true;
+            this.hedgeDelayMillis = delayMillis;
+            return this;
+        }
+
+        /** Overrides the client's connect timeout for this request only. */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutMillis = checkDuration("timeout", timeout, unit);
+            return this;
+        }
+
+        /** Overrides the client's read timeout for this request only. */
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            this.readTimeoutMillis = checkDuration("timeout", timeout, unit);
+            return this;
+        }
+
+        /** Overrides the client's write timeout for this request only. */
+        public Builder writeTimeout(long timeout, TimeUnit unit) {
+            this.writeTimeoutMillis = checkDuration("timeout", timeout, unit);
+            return this;
+        }
+
+        /**
+         * Sets an end-to-end deadline, counted from {@link HTTPClient#send(Request)} and covering
+         * connect, write, read, redirects and retries. When it passes the call is cancelled and
+         * the listener gets a {@link ErrorString#REQUEST_TIMEOUT} failure.
+         */
+        public Builder deadline(long timeout, TimeUnit unit) {
+            this.deadlineMillis = checkDuration("timeout", timeout, unit);
+            return this;
+        }
+
+        private static long checkDuration(String name, long duration, TimeUnit unit) {
+            if (duration < 0) throw new IllegalArgumentException(name + " < 0");
+            if (unit == null) throw new NullPointerException("unit == null");
+            long millis = unit.toMillis(duration);
+            if (millis > Integer.MAX_VALUE) throw new IllegalArgumentException(name + " too large.");
+            if (millis == 0 && duration > 0) throw new IllegalArgumentException(name + " too small.");
+            return millis;
+        }
+
+        /**
+         * Sending a request with the same {@code key} silently cancels this one if it has not
+         * finished yet, only the newest request of a key reports back. Meant for search as you type.
+         */
+        public Builder supersedeKey(String key) {
+            this.supersedeKey = key;
+            this.debounceMillis = 0;
+            return this;
+        }
+
+        /**
+         * Like {@link #supersedeKey(String)}, and also holds the request back for {@code debounce}
+         * so a burst of keystrokes ends up as a single call.
+         */
+        public Builder supersedeKey(@NonNull String key, long debounce, TimeUnit unit) {
+            if (key == null) throw new NullPointerException("key == null");
+            this.supersedeKey = key;
+            this.debounceMillis = checkDuration("debounce", debounce, unit);
+            return this;
+        }
+
+        /** Overrides the client's retry policy, {@link RetryPolicy#NONE} disables retries. */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the {@code Idempotency-Key} header, letting the server drop duplicates so a POST or
+         * PATCH can be retried safely.
+         */
+        public Builder idempotencyKey(@NonNull String key) {
+            if (key == null) throw new NullPointerException("key == null");
+            return this.header(RetryPolicy.IDEMPOTENCY_KEY_HEADER, key);
+        }
+
+        /** Sets a random {@code Idempotency-Key} header. */
+        public Builder idempotencyKey() {
+            return this.idempotencyKey(UUID.randomUUID().toString());
+        }
+
+        public Builder priority(@NonNull Priority priority) {
+            if (priority == null) throw new NullPointerException("priority == null");
+            this.priority = priority;
+            return this;
+        }
+
         public Builder addContentTypeHeader() {
             String type;
             if (this.body == null) {
@@ -741,32 +1767,92 @@ public class Request implements Callback {
         }
     }
 
-    private void safeRun(Runnable task) {
-        if (!this.validContext()) {
+    /**
+     * Collects the callbacks of one outcome, finish with success or failure and rescue, so they
+     * reach the listener in a single dispatch. Only used by the thread completing the request.
+     */
+    private void beginDelivery() {
+        if (this.deliveryDepth++ == 0) {
+            this.deliveryBatch = new ArrayList<Runnable>();
+        }
+    }
+
+    private void endDelivery() {
+        if (--this.deliveryDepth > 0) return;
+        final ArrayList<Runnable> batch = this.deliveryBatch;
+        this.deliveryBatch = null;
+        // A finished request lets go of its listener, often an Activity, once the last callback ran
+        final boolean release = this.completed.get();
+        if ((batch == null || batch.isEmpty()) && !release) return;
+        this.post(new Runnable() {
+            @Override
+            public void run() {
+                if (batch != null) {
+                    for (Runnable task : batch) {
+                        task.run();
+                    }
+                }
+                if (release) requestHandler = null;
+            }
+        });
+    }
+
+    private void safeRun(final Runnable callback) {
+        if (this.canceled || !this.validContext()) {
             return;
         }
-        if (this.ctx instanceof Activity) {
-            new Handler(Looper.getMainLooper()).post(task);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                // Cancelled while waiting for its turn, the caller no longer wants it
+                if (!canceled) callback.run();
+            }
+        };
+        if (this.deliveryBatch != null) {
+            this.deliveryBatch.add(task);
+            return;
+        }
+        this.post(task);
+    }
+
+    private void post(Runnable task) {
+        if (this.context() instanceof Activity) {
+            this.dispatcher().postMain(task);
         } else {
-            new Thread(task).start();
+            this.callbackExecutor().execute(task);
+        }
+    }
+
+    private CallbackDispatcher dispatcher() {
+        if (this.callbackDispatcher == null) {
+            this.callbackDispatcher = CallbackDispatcher.getDefault();
+        }
+        return this.callbackDispatcher;
+    }
+
+    private synchronized Executor callbackExecutor() {
+        if (this.callbackExecutor == null) {
+            this.callbackExecutor = this.dispatcher().newSerialExecutor();
         }
+        return this.callbackExecutor;
     }
 
     public Boolean validContext() {
-        if (this.ctx == null) {
+        Context ctx = this.context();
+        if (ctx == null) {
             return false;
-        } else if (this.ctx instanceof AppCompatActivity) {
+        } else if (ctx instanceof AppCompatActivity) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-                if (((Activity) this.ctx).isFinishing() || ((Activity) this.ctx).isDestroyed()) {
+                if (((Activity) ctx).isFinishing() || ((Activity) ctx).isDestroyed()) {
                     return false;
                 }
             } else {
-                if (((Activity) this.ctx).isFinishing()) {
+                if (((Activity) ctx).isFinishing()) {
                     return false;
                 }
             }
-        } else if (this.ctx instanceof Service) {
-        } else if (this.ctx instanceof Application) {
+        } else if (ctx instanceof Service) {
+        } else if (ctx instanceof Application) {
         }
         return true;
     }
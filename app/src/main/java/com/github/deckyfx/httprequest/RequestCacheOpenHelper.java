@@ -0,0 +1,52 @@
+package com.github.deckyfx.httprequest;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.github.deckyfx.greendao.database.Database;
+import com.github.deckyfx.httprequest.dao.DaoMaster;
+
+/**
+ * Upgrades the request cache database without dropping it when the schema only gained tables, so
+ * queued outbox requests and upload sessions survive an update. Lives outside the generated
+ * {@code dao} package, regenerating the DAOs must not lose the migration.
+ */
+final class RequestCacheOpenHelper extends DaoMaster.OpenHelper {
+    /** Schema versions from this one on only added tables, upgrading from them keeps the data. */
+    static final int ADDITIVE_SINCE_VERSION                     = 1806261420;
+
+    RequestCacheOpenHelper(Context context, String name) {
+        super(context, name);
+    }
+
+    /**
+     * Brings the database {@code name} to the current schema before anything else opens it, the
+     * generated helper then finds it up to date. Returns {@code name}.
+     */
+    static String upgrade(Context context, String name) {
+        RequestCacheOpenHelper helper = new RequestCacheOpenHelper(context, name);
+        try {
+            helper.getWritableDb();
+        } finally {
+            helper.close();
+        }
+        return name;
+    }
+
+    @Override
+    public void onUpgrade(Database db, int oldVersion, int newVersion) {
+        if (oldVersion >= ADDITIVE_SINCE_VERSION) {
+            Log.i("greenDAO", "Upgrading schema from version " + oldVersion + " to " + newVersion + " by creating missing tables");
+            DaoMaster.createAllTables(db, true);
+            return;
+        }
+        Log.i("greenDAO", "Upgrading schema from version " + oldVersion + " to " + newVersion + " by dropping all tables");
+        DaoMaster.dropAllTables(db, true);
+        this.onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(Database db, int oldVersion, int newVersion) {
+        throw new Error("Can't downgrade database from version " + oldVersion + " to " + newVersion);
+    }
+}
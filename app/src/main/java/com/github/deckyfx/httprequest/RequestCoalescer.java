@@ -0,0 +1,179 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * Single-flight for identical GET requests. The first request for a key performs the call, any
+ * request with the same key sent while it is in flight attaches to it and receives the same
+ * response body.
+ */
+class RequestCoalescer {
+    static final String[] DEFAULT_VARY_HEADERS = new String[] {
+            "Accept", "Accept-Encoding", "Accept-Language", "Authorization", "Cookie"
+    };
+
+    private final ConcurrentHashMap<String, InFlightCall> mInFlight = new ConcurrentHashMap<String, InFlightCall>();
+    private final List<String> mVaryHeaders;
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    RequestCoalescer(String[] varyHeaders) {
+        this.mVaryHeaders = Arrays.asList(varyHeaders != null ? varyHeaders : DEFAULT_VARY_HEADERS);
+    }
+
+    /** Returns the coalescing key of {@code request}, or null if it must not be shared. */
+    String key(okhttp3.Request request) {
+        if (!request.method().equals(HttpMethod.GET)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(request.method()).append(' ').append(request.url());
+        for (String name : this.mVaryHeaders) {
+            List<String> values = request.headers(name);
+            if (values.isEmpty()) continue;
+            sb.append('\n').append(name.toLowerCase(Locale.US)).append(':');
+            for (String value : values) {
+                sb.append(value).append(',');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Attaches {@code request} to the call in flight for {@code key}. Returns null if it was
+     * attached, otherwise the callback the caller must enqueue its own call with.
+     */
+    Callback join(String key, Request request) {
+        while (true) {
+            InFlightCall existing = this.mInFlight.get(key);
+            if (existing == null) {
+                InFlightCall created = new InFlightCall(key, request);
+                existing = this.mInFlight.putIfAbsent(key, created);
+                if (existing == null) {
+                    return created;
+                }
+            }
+            if (existing.add(request)) {
+                this.mCoalesced.incrementAndGet();
+                return null;
+            }
+            // Already completing, drop it and start a fresh call
+            this.mInFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * Fails every request attached to {@code callback} with {@code reason} when the shared call
+     * never started. Returns false if {@code callback} is not a coalesced call.
+     */
+    boolean drop(Callback callback, String reason) {
+        if (!(callback instanceof InFlightCall)) {
+            return false;
+        }
+        for (Request request : ((InFlightCall) callback).complete()) {
+            request.onDropped(reason);
+        }
+        return true;
+    }
+
+    int getInFlightCount() {
+        return this.mInFlight.size();
+    }
+
+    long getCoalescedCount() {
+        return this.mCoalesced.get();
+    }
+
+    final class InFlightCall implements Callback, CallOwner {
+        private final String mKey;
+        private final ArrayList<Request> mRequests = new ArrayList<Request>();
+        private final ArrayList<Call> mCalls = new ArrayList<Call>();
+        private boolean mDone = false;
+
+        InFlightCall(String key, Request leader) {
+            this.mKey = key;
+            this.mRequests.add(leader);
+            leader.setCoalescedCall(this);
+        }
+
+        synchronized boolean add(Request request) {
+            if (this.mDone) return false;
+            this.mRequests.add(request);
+            request.setCoalescedCall(this);
+            return true;
+        }
+
+        @Override
+        public void attachCall(Call call) {
+            synchronized (this) {
+                if (!this.allCanceled()) {
+                    this.mCalls.add(call);
+                    return;
+                }
+            }
+            call.cancel();
+        }
+
+        @Override
+        public synchronized boolean isCanceled() {
+            return this.allCanceled();
+        }
+
+        /** One attached request was cancelled, cancel the shared call if nobody is left. */
+        void onRequestCanceled() {
+            ArrayList<Call> toCancel;
+            synchronized (this) {
+                if (!this.allCanceled()) return;
+                this.mDone = true;
+                mInFlight.remove(this.mKey, this);
+                toCancel = new ArrayList<Call>(this.mCalls);
+                this.mCalls.clear();
+            }
+            for (Call call : toCancel) {
+                call.cancel();
+            }
+        }
+
+        private boolean allCanceled() {
+            for (Request request : this.mRequests) {
+                if (!request.isCanceled()) return false;
+            }
+            return true;
+        }
+
+        private synchronized List<Request> complete() {
+            this.mDone = true;
+            mInFlight.remove(this.mKey, this);
+            return new ArrayList<Request>(this.mRequests);
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            for (Request request : this.complete()) {
+                request.onFailure(call, e);
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            byte[] response_bytes = new byte[0];
+            try {
+                response_bytes = response.body().bytes();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (Request request : this.complete()) {
+                request.onResponse(call, response, response_bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * Sends a second copy of a slow idempotent call and keeps whichever answers first. The copy is
+ * fired after the request's hedge delay, or the host's observed p95 time to response headers,
+ * and only while hedges stay under the configured share of all hedgeable calls.
+ */
+class RequestHedger implements PrintingEventListener.CallObserver {
+    static final long DEFAULT_DELAY_MILLIS              = 1000;
+    static final int DEFAULT_BUDGET_PERCENT             = 5;
+
+    private static final int SAMPLE_SIZE                = 64;
+
+    private final long mDefaultDelayMillis;
+    private final int mBudgetPercent;
+    private final ConcurrentHashMap<String, LatencyWindow> mLatencies = new ConcurrentHashMap<String, LatencyWindow>();
+    private final AtomicLong mCalls                     = new AtomicLong();
+    private final AtomicLong mHedges                    = new AtomicLong();
+    private final AtomicLong mHedgeWins                 = new AtomicLong();
+
+    RequestHedger(long defaultDelayMillis, int budgetPercent) {
+        this.mDefaultDelayMillis = defaultDelayMillis;
+        this.mBudgetPercent = budgetPercent;
+    }
+
+    static boolean isHedgeable(Request request) {
+        String method = request.method();
+        return request.isHedged() && (method.equals(HttpMethod.GET) || method.equals(HttpMethod.HEAD));
+    }
+
+    /** Enqueues {@code request} with a hedge; {@code delegate} sees exactly one outcome. */
+    void enqueue(OkHttpClient client, okhttp3.Request request, long delayMillis, Callback delegate, CallOwner owner) {
+        this.mCalls.incrementAndGet();
+        if (delayMillis < 0) {
+            delayMillis = this.delayFor(request.url().host());
+        }
+        new HedgedCall(client, request, delegate, owner).start(delayMillis);
+    }
+
+    private long delayFor(String host) {
+        LatencyWindow window = this.mLatencies.get(host);
+        long p95 = window != null ? window.percentileMillis(95) : -1;
+        return p95 > 0 ? p95 : this.mDefaultDelayMillis;
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            long hedges = this.mHedges.get();
+            if ((hedges + 1) * 100 > this.mCalls.get() * this.mBudgetPercent) {
+                return false;
+            }
+            if (this.mHedges.compareAndSet(hedges, hedges + 1)) {
+                return true;
+            }
+        }
+    }
+
+    long getHedgeCount() {
+        return this.mHedges.get();
+    }
+
+    long getHedgeWinCount() {
+        return this.mHedgeWins.get();
+    }
+
+    @Override
+    public void onCallCompleted(String host, long latencyNanos, boolean failed, boolean timedOut) {
+        if (failed) return;
+        LatencyWindow window = this.mLatencies.get(host);
+        if (window == null) {
+            LatencyWindow created = new LatencyWindow();
+            window = this.mLatencies.putIfAbsent(host, created);
+            if (window == null) window = created;
+        }
+        window.add(latencyNanos / 1000000L);
+    }
+
+    private static final class LatencyWindow {
+        private final long[] mSamples = new long[SAMPLE_SIZE];
+        private int mCount = 0;
+        private int mNext = 0;
+
+        synchronized void add(long millis) {
+            this.mSamples[this.mNext] = millis;
+            this.mNext = (this.mNext + 1) % SAMPLE_SIZE;
+            this.mCount = Math.min(this.mCount + 1, SAMPLE_SIZE);
+        }
+
+        synchronized long percentileMillis(int percentile) {
+            // Too few samples make for a noisy tail, fall back to the default delay
+            if (this.mCount < 10) return -1;
+            long[] sorted = Arrays.copyOf(this.mSamples, this.mCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100d * this.mCount) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+
+    private final class HedgedCall implements Callback {
+        private final OkHttpClient mClient;
+        private final okhttp3.Request mRequest;
+        private final Callback mDelegate;
+        private final CallOwner mOwner;
+        private Call mPrimary;
+        private Call mHedge;
+        private ScheduledFuture<?> mTimer;
+        private int mRunning = 0;
+        private boolean mDelivered = false;
+
+        HedgedCall(OkHttpClient client, okhttp3.Request request, Callback delegate, CallOwner owner) {
+            this.mClient = client;
+            this.mRequest = request;
+            this.mDelegate = delegate;
+            this.mOwner = owner;
+        }
+
+        synchronized void start(long delayMillis) {
+            this.mPrimary = this.mClient.newCall(this.mRequest);
+            this.mOwner.attachCall(this.mPrimary);
+            this.mRunning++;
+            this.mPrimary.enqueue(this);
+            this.mTimer = RequestTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fireHedge();
+                }
+            }, delayMillis);
+        }
+
+        private synchronized void fireHedge() {
+            if (this.mDelivered || this.mPrimary.isCanceled() || !tryAcquire()) {
+                return;
+            }
+            this.mHedge = this.mClient.newCall(this.mRequest);
+            this.mOwner.attachCall(this.mHedge);
+            this.mRunning++;
+            this.mHedge.enqueue(this);
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            synchronized (this) {
+                if (this.mDelivered) {
+                    response.close();
+                    return;
+                }
+                this.mDelivered = true;
+                this.mTimer.cancel(false);
+                Call loser = call == this.mPrimary ? this.mHedge : this.mPrimary;
+                if (loser != null) loser.cancel();
+                if (call == this.mHedge) mHedgeWins.incrementAndGet();
+            }
+            this.mDelegate.onResponse(call, response);
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            synchronized (this) {
+                if (this.mDelivered) return;
+                this.mRunning--;
+                // Wait for the other copy, one of them may still succeed
+                if (this.mRunning > 0 && !call.isCanceled()) return;
+                this.mDelivered = true;
+                this.mTimer.cancel(false);
+                if (this.mRunning > 0) {
+                    Call other = call == this.mPrimary ? this.mHedge : this.mPrimary;
+                    if (other != null) other.cancel();
+                }
+            }
+            this.mDelegate.onFailure(call, e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.deckyfx.httprequest;
+
+import android.content.Context;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * In-flight requests of a client, indexed by tag and by owning {@link Context}, so cancelling
+ * one tag only touches that tag's requests. Contexts are held weakly, an indexed request must
+ * not keep its Activity alive.
+ */
+class RequestIndex {
+    private final HashMap<Object, LinkedHashSet<Request>> mByTag        = new HashMap<Object, LinkedHashSet<Request>>();
+    private final HashMap<ContextKey, LinkedHashSet<Request>> mByContext = new HashMap<ContextKey, LinkedHashSet<Request>>();
+    // Value is the context key taken at add time, the request's own reference may clear meanwhile
+    private final LinkedHashMap<Request, ContextKey> mAll               = new LinkedHashMap<Request, ContextKey>();
+
+    synchronized void add(Request request) {
+        if (this.mAll.containsKey(request)) return;
+        Context context = request.context();
+        ContextKey key = context != null ? new ContextKey(context) : null;
+        this.mAll.put(request, key);
+        put(this.mByTag, request.tag(), request);
+        if (key != null) put(this.mByContext, key, request);
+    }
+
+    synchronized void remove(Request request) {
+        if (!this.mAll.containsKey(request)) return;
+        ContextKey key = this.mAll.remove(request);
+        take(this.mByTag, request.tag(), request);
+        if (key != null) take(this.mByContext, key, request);
+    }
+
+    synchronized List<Request> byTag(Object tag) {
+        LinkedHashSet<Request> requests = this.mByTag.get(tag);
+        return requests != null ? new ArrayList<Request>(requests) : new ArrayList<Request>();
+    }
+
+    synchronized List<Request> byContext(Context context) {
+        LinkedHashSet<Request> requests = this.mByContext.get(new ContextKey(context));
+        return requests != null ? new ArrayList<Request>(requests) : new ArrayList<Request>();
+    }
+
+    synchronized List<Request> all() {
+        return new ArrayList<Request>(this.mAll.keySet());
+    }
+
+    synchronized int size() {
+        return this.mAll.size();
+    }
+
+    private static <K> void put(HashMap<K, LinkedHashSet<Request>> index, K key, Request request) {
+        LinkedHashSet<Request> requests = index.get(key);
+        if (requests == null) {
+            requests = new LinkedHashSet<Request>();
+            index.put(key, requests);
+        }
+        requests.add(request);
+    }
+
+    private static <K> void take(HashMap<K, LinkedHashSet<Request>> index, K key, Request request) {
+        LinkedHashSet<Request> requests = index.get(key);
+        if (requests == null) return;
+        requests.remove(request);
+        if (requests.isEmpty()) index.remove(key);
+    }
+
+    /** Weak, identity based map key for a {@link Context}. */
+    private static final class ContextKey {
+        private final WeakReference<Context> mContext;
+        private final int mHash;
+
+        ContextKey(Context context) {
+            this.mContext = new WeakReference<Context>(context);
+            this.mHash = System.identityHashCode(context);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.mHash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) return true;
+            if (!(other instanceof ContextKey)) return false;
+            Context context = this.mContext.get();
+            return context != null && context == ((ContextKey) other).mContext.get();
+        }
+    }
+}
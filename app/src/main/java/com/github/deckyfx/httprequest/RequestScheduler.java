@@ -0,0 +1,321 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * Admits requests to the OkHttp dispatcher by {@link Request.Priority}. Inside one priority class,
+ * requests are taken round robin by tag so one busy screen can not starve the others. When the
+ * queue gets deep, {@link Request.Priority#PREFETCH} and {@link Request.Priority#BACKGROUND} work
+ * is shed.
+ */
+class RequestScheduler implements NetworkMonitor.Listener {
+    static final int DEFAULT_MAX_QUEUED                 = 128;
+
+    private final FairQueue[] mQueues;
+    private final HashMap<String, Integer> mHostInFlight = new HashMap<String, Integer>();
+    private int mMaxInFlight;
+    private int mMaxInFlightPerHost;
+    private int mMaxQueued;
+    private int mInFlight                               = 0;
+    private int mQueued                                 = 0;
+    private AdaptiveLimiter mLimiter;
+    private NetworkMonitor mNetworkMonitor;
+
+    private final long[] mAdmitted;
+    private final long[] mTotalWaitNanos;
+    private long mShed                                  = 0;
+
+    RequestScheduler(int maxInFlight, int maxInFlightPerHost, int maxQueued) {
+        int classes = Request.Priority.values().length;
+        this.mQueues = new FairQueue[classes];
+        for (int i = 0; i < classes; i++) {
+            this.mQueues[i] = new FairQueue();
+        }
+        this.mAdmitted = new long[classes];
+        this.mTotalWaitNanos = new long[classes];
+        this.mMaxInFlight = maxInFlight;
+        this.mMaxInFlightPerHost = maxInFlightPerHost;
+        this.mMaxQueued = maxQueued;
+    }
+
+    void submit(Task task) {
+        Task shed = null;
+        synchronized (this) {
+            task.mEnqueuedNanos = System.nanoTime();
+            if (this.mQueued >= this.mMaxQueued) {
+                if (task.mPriority.isSheddable()) {
+                    shed = task;
+                } else {
+                    shed = this.evictSheddable();
+                }
+            }
+            if (shed != task) {
+                this.mQueues[task.mPriority.ordinal()].add(task);
+                this.mQueued++;
+            }
+            if (shed != null) {
+                this.mShed++;
+            }
+        }
+        if (shed != null) {
+            shed.shed();
+        }
+        this.promote();
+    }
+
+    void finished(Task task) {
+        synchronized (this) {
+            if (!task.mRunning) return;
+            task.mRunning = false;
+            this.mInFlight--;
+            Integer count = this.mHostInFlight.get(task.mHost);
+            if (count == null || count <= 1) {
+                this.mHostInFlight.remove(task.mHost);
+            } else {
+                this.mHostInFlight.put(task.mHost, count - 1);
+            }
+        }
+        this.promote();
+    }
+
+    /** Drops the queued tasks of {@code request} without running them. */
+    void remove(Request request) {
+        synchronized (this) {
+            for (FairQueue queue : this.mQueues) {
+                this.mQueued -= queue.remove(request);
+            }
+        }
+    }
+
+    private void promote() {
+        List<Task> ready = new ArrayList<Task>();
+        synchronized (this) {
+            while (this.mInFlight < this.mMaxInFlight) {
+                Task next = null;
+                for (FairQueue queue : this.mQueues) {
+                    next = queue.poll(this);
+                    if (next != null) break;
+                }
+                if (next == null) break;
+                this.mQueued--;
+                this.mInFlight++;
+                next.mRunning = true;
+                Integer count = this.mHostInFlight.get(next.mHost);
+                this.mHostInFlight.put(next.mHost, count == null ? 1 : count + 1);
+                int priority = next.mPriority.ordinal();
+                this.mAdmitted[priority]++;
+                this.mTotalWaitNanos[priority] += System.nanoTime() - next.mEnqueuedNanos;
+                ready.add(next);
+            }
+        }
+        for (Task task : ready) {
+            task.start();
+        }
+    }
+
+    private boolean canAdmit(Task task) {
+        if (task.mPriority == Request.Priority.PREFETCH && this.mNetworkMonitor != null
+                && this.mNetworkMonitor.getState().isMetered()) {
+            // Prefetches wait in the queue until the device is off a metered network
+            return false;
+        }
+        Integer count = this.mHostInFlight.get(task.mHost);
+        int limit = this.mLimiter != null ? this.mLimiter.getLimit(task.mHost) : this.mMaxInFlightPerHost;
+        return count == null || count < limit;
+    }
+
+    private Task evictSheddable() {
+        for (int i = this.mQueues.length - 1; i >= 0; i--) {
+            if (!Request.Priority.values()[i].isSheddable()) break;
+            Task task = this.mQueues[i].removeNewest();
+            if (task != null) {
+                this.mQueued--;
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /** Wraps {@code delegate} so the task's slot is released once the call completes. */
+    Callback releaseOnComplete(final Task task, final Callback delegate) {
+        return new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                try {
+                    delegate.onFailure(call, e);
+                } finally {
+                    finished(task);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    delegate.onResponse(call, response);
+                } finally {
+                    finished(task);
+                }
+            }
+        };
+    }
+
+    synchronized void setLimits(int maxInFlight, int maxInFlightPerHost, int maxQueued) {
+        this.mMaxInFlight = maxInFlight;
+        this.mMaxInFlightPerHost = maxInFlightPerHost;
+        this.mMaxQueued = maxQueued;
+    }
+
+    synchronized void setAdaptiveLimiter(AdaptiveLimiter limiter) {
+        this.mLimiter = limiter;
+    }
+
+    /** Holds {@link Request.Priority#PREFETCH} requests back while {@code monitor} reports a metered network. */
+    void deferPrefetchOnMetered(NetworkMonitor monitor) {
+        synchronized (this) {
+            this.mNetworkMonitor = monitor;
+        }
+        if (monitor != null) monitor.addListener(this);
+    }
+
+    @Override
+    public void onNetworkChanged(NetworkMonitor.State state) {
+        this.promote();
+    }
+
+    synchronized int getInFlightCount() {
+        return this.mInFlight;
+    }
+
+    synchronized int getQueuedCount() {
+        return this.mQueued;
+    }
+
+    synchronized int getInFlightCount(String host) {
+        Integer count = this.mHostInFlight.get(host);
+        return count != null ? count : 0;
+    }
+
+    synchronized int getQueuedCount(Request.Priority priority) {
+        return this.mQueues[priority.ordinal()].size();
+    }
+
+    synchronized long getShedCount() {
+        return this.mShed;
+    }
+
+    /** Average time requests of {@code priority} waited in the queue before being admitted. */
+    synchronized double getAverageQueueWaitMillis(Request.Priority priority) {
+        int i = priority.ordinal();
+        if (this.mAdmitted[i] == 0) return 0;
+        return this.mTotalWaitNanos[i] / (double) this.mAdmitted[i] / 1000000d;
+    }
+
+    abstract static class Task {
+        final Request mRequest;
+        final String mHost;
+        final Request.Priority mPriority;
+        final Object mFairKey;
+        long mEnqueuedNanos;
+        boolean mRunning;
+
+        Task(Request request, String host) {
+            this.mRequest = request;
+            this.mHost = host;
+            this.mPriority = request.priority();
+            this.mFairKey = request.tag() instanceof Request ? request.context() : request.tag();
+        }
+
+        /** Called outside the scheduler lock once the task has been admitted. */
+        abstract void start();
+
+        /** Called when the task was dropped because the queue is full. */
+        void shed() {
+            this.mRequest.onDropped(ErrorString.REQUEST_DROPPED);
+        }
+    }
+
+    /** Per-tag FIFO queues served round robin. */
+    private static final class FairQueue {
+        private final LinkedHashMap<Object, ArrayDeque<Task>> mFlows = new LinkedHashMap<Object, ArrayDeque<Task>>();
+        private int mSize = 0;
+
+        void add(Task task) {
+            ArrayDeque<Task> flow = this.mFlows.get(task.mFairKey);
+            if (flow == null) {
+                flow = new ArrayDeque<Task>();
+                this.mFlows.put(task.mFairKey, flow);
+            }
+            flow.addLast(task);
+            this.mSize++;
+        }
+
+        Task poll(RequestScheduler scheduler) {
+            Iterator<Map.Entry<Object, ArrayDeque<Task>>> iterator = this.mFlows.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Object, ArrayDeque<Task>> entry = iterator.next();
+                ArrayDeque<Task> flow = entry.getValue();
+                if (!scheduler.canAdmit(flow.peekFirst())) continue;
+                Task task = flow.pollFirst();
+                this.mSize--;
+                // Move the flow to the back so the next poll serves another tag first
+                iterator.remove();
+                if (!flow.isEmpty()) {
+                    this.mFlows.put(entry.getKey(), flow);
+                }
+                return task;
+            }
+            return null;
+        }
+
+        Task removeNewest() {
+            Task newest = null;
+            Object newestKey = null;
+            for (Map.Entry<Object, ArrayDeque<Task>> entry : this.mFlows.entrySet()) {
+                Task last = entry.getValue().peekLast();
+                if (newest == null || last.mEnqueuedNanos > newest.mEnqueuedNanos) {
+                    newest = last;
+                    newestKey = entry.getKey();
+                }
+            }
+            if (newest == null) return null;
+            ArrayDeque<Task> flow = this.mFlows.get(newestKey);
+            flow.pollLast();
+            if (flow.isEmpty()) this.mFlows.remove(newestKey);
+            this.mSize--;
+            return newest;
+        }
+
+        int remove(Request request) {
+            int removed = 0;
+            Iterator<ArrayDeque<Task>> flows = this.mFlows.values().iterator();
+            while (flows.hasNext()) {
+                ArrayDeque<Task> flow = flows.next();
+                Iterator<Task> tasks = flow.iterator();
+                while (tasks.hasNext()) {
+                    if (tasks.next().mRequest == request) {
+                        tasks.remove();
+                        removed++;
+                    }
+                }
+                if (flow.isEmpty()) flows.remove();
+            }
+            this.mSize -= removed;
+            return removed;
+        }
+
+        int size() {
+            return this.mSize;
+        }
+    }
+}
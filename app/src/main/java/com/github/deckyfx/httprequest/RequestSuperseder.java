@@ -0,0 +1,31 @@
+package com.github.deckyfx.httprequest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the newest request of every supersede key. Sending a newer request with the same key
+ * cancels the older one, so only the last keystroke of a search box gets an answer.
+ */
+class RequestSuperseder {
+    private final ConcurrentHashMap<String, Request> mLatest = new ConcurrentHashMap<String, Request>();
+    private final AtomicLong mSuperseded = new AtomicLong();
+
+    void supersede(Request request) {
+        Request previous = this.mLatest.put(request.supersedeKey(), request);
+        if (previous != null && previous != request) {
+            this.mSuperseded.incrementAndGet();
+            previous.cancel();
+        }
+    }
+
+    void finished(Request request) {
+        if (request.supersedeKey() != null) {
+            this.mLatest.remove(request.supersedeKey(), request);
+        }
+    }
+
+    long getSupersededCount() {
+        return this.mSuperseded.get();
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.deckyfx.httprequest;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared timer for delayed work such as hedges and backoff. Tasks must be short, anything heavy
+ * should be handed over to OkHttp or the {@link CallbackDispatcher}.
+ */
+final class RequestTimer {
+    private static final ScheduledThreadPoolExecutor sExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new TimerThread(runnable, "HTTPRequest Timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private RequestTimer() {
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return sExecutor.schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /** True on the timer's own thread, which must never block. */
+    static boolean isTimerThread() {
+        return Thread.currentThread() instanceof TimerThread;
+    }
+
+    private static final class TimerThread extends Thread {
+        TimerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import okio.BufferedSource;
+
+/**
+ * Turns a response body into a typed object. Runs on the OkHttp thread, reading straight from
+ * the body, so the callback thread only ever sees the decoded result.
+ *
+ * @see GsonDecoder
+ */
+public interface ResponseDecoder<T> {
+    /** Decodes {@code source}, whose text is in {@code charset}. Must not close it. */
+    T decode(BufferedSource source, Charset charset) throws IOException;
+}
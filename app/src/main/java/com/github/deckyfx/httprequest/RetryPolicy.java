@@ -0,0 +1,119 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import okhttp3.Response;
+import okhttp3.internal.http.HttpDate;
+
+/**
+ * When and how often a failed request is sent again. Delays grow exponentially from
+ * {@link #baseDelayMillis()} and use full jitter, a random delay between zero and the cap, so
+ * clients that failed together do not retry together.
+ *
+ * <p>Only idempotent methods are retried, or any method carrying an {@code Idempotency-Key}
+ * header. Bodies built by {@link Request.Builder} from params, files or byte arrays can be
+ * written more than once; a custom streaming {@code RequestBody} must be too, to be retried.
+ */
+public class RetryPolicy {
+    public static final String IDEMPOTENCY_KEY_HEADER           = "Idempotency-Key";
+    public static final int DEFAULT_MAX_ATTEMPTS                = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS          = 200;
+    public static final long DEFAULT_MAX_DELAY_MILLIS           = 10000;
+
+    /** Never retries. */
+    public static final RetryPolicy NONE                        = new RetryPolicy(1, 0, 0);
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom                                = new Random();
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts < 1");
+        if (baseDelayMillis < 0) throw new IllegalArgumentException("baseDelayMillis < 0");
+        if (maxDelayMillis < baseDelayMillis) throw new IllegalArgumentException("maxDelayMillis < baseDelayMillis");
+        this.mMaxAttempts = maxAttempts;
+        this.mBaseDelayMillis = baseDelayMillis;
+        this.mMaxDelayMillis = maxDelayMillis;
+    }
+
+    public int maxAttempts() {
+        return this.mMaxAttempts;
+    }
+
+    public long baseDelayMillis() {
+        return this.mBaseDelayMillis;
+    }
+
+    public long maxDelayMillis() {
+        return this.mMaxDelayMillis;
+    }
+
+    public boolean isRetryable(Request request) {
+        String method = request.method();
+        if (method.equals(HttpMethod.GET) || method.equals(HttpMethod.HEAD)
+                || method.equals(HttpMethod.OPTIONS) || method.equals(HttpMethod.PUT)
+                || method.equals(HttpMethod.DELETE)) {
+            return true;
+        }
+        return request.header(IDEMPOTENCY_KEY_HEADER) != null;
+    }
+
+    public boolean shouldRetry(IOException e) {
+        if (e instanceof SSLHandshakeException || e instanceof SSLPeerUnverifiedException) {
+            return false;
+        }
+        // Interrupted means the call was cancelled or hit its deadline, but a timeout is transient
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    public boolean shouldRetry(Response response) {
+        int code = response.code();
+        return code == 408 || code == 429 || code == 502 || code == 503 || code == 504;
+    }
+
+    /** Backoff before attempt number {@code attempt + 1}, {@code attempt} starting at 1. */
+    public long delayMillis(int attempt) {
+        long cap = this.mBaseDelayMillis << Math.min(attempt - 1, 30);
+        if (cap <= 0 || cap > this.mMaxDelayMillis) cap = this.mMaxDelayMillis;
+        synchronized (this.mRandom) {
+            return (long) (this.mRandom.nextDouble() * cap);
+        }
+    }
+
+    /**
+     * Backoff for a retryable response, honouring its {@code Retry-After} header. Returns -1 when
+     * the server asks to wait longer than the maximum delay: the response should be delivered.
+     */
+    public long delayMillis(int attempt, Response response) {
+        long delay = this.delayMillis(attempt);
+        long retryAfter = retryAfterMillis(response);
+        if (retryAfter > this.mMaxDelayMillis) {
+            // Retrying earlier would only be refused again and spend the retry budget
+            return -1;
+        }
+        return retryAfter > 0 ? Math.max(delay, retryAfter) : delay;
+    }
+
+    /** Parses {@code Retry-After} as seconds or an HTTP date, -1 if absent or invalid. */
+    static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim()) * 1000L;
+        } catch (NumberFormatException e) {
+            java.util.Date date = HttpDate.parse(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.internal.Util;
+import okio.BufferedSource;
+
+/**
+ * Downloads a large resource over several connections at once. A first range request probes the
+ * size and range support, the rest of the file is split into chunks fetched concurrently and
+ * written in place into a preallocated file. The number of parallel connections starts at two
+ * and grows while it keeps raising throughput. A failed chunk is retried on its own, from the
+ * byte it stopped at. Servers without range support get a plain single connection download.
+ */
+public class SegmentedDownload {
+    public static final int DEFAULT_MAX_SEGMENTS                = 6;
+    public static final int DEFAULT_MIN_CHUNK_SIZE              = 512 * 1024;
+    public static final int DEFAULT_MAX_ATTEMPTS                = 3;
+
+    private static final int INITIAL_SEGMENTS                   = 2;
+    private static final int BUFFER_SIZE                        = 64 * 1024;
+    private static final RetryPolicy BACKOFF                    = new RetryPolicy(DEFAULT_MAX_ATTEMPTS,
+            RetryPolicy.DEFAULT_BASE_DELAY_MILLIS, RetryPolicy.DEFAULT_MAX_DELAY_MILLIS);
+
+    public interface Listener {
+        void onDownloadComplete(SegmentedDownload download, File file);
+        void onDownloadFailure(SegmentedDownload download, IOException error);
+    }
+
+    private final OkHttpClient mClient;
+    private final HttpUrl mUrl;
+    private final File mFile;
+    private final File mPartFile;
+    private final int mMaxSegments;
+    private final CallbackDispatcher mDispatcher;
+    private final Listener mListener;
+
+    private final ArrayDeque<Chunk> mPending                    = new ArrayDeque<Chunk>();
+    private final List<Call> mCalls                             = new ArrayList<Call>();
+    private RandomAccessFile mOutput;
+    private FileChannel mChannel;
+    private String mValidator;
+    private long mTotalBytes                                    = -1;
+    private long mDoneBytes                                     = 0;
+    private int mRunning                                        = 0;
+    private int mRemainingChunks                                = 0;
+    private int mTargetSegments                                 = INITIAL_SEGMENTS;
+    private boolean mFinished                                   = false;
+
+    // Throughput of the current and the previous concurrency level
+    private long mLevelStartNanos;
+    private long mLevelBytes                                    = 0;
+    private int mLevelChunks                                    = 0;
+    private double mPreviousThroughput                          = 0;
+
+    SegmentedDownload(OkHttpClient client, HttpUrl url, File file, int maxSegments, CallbackDispatcher dispatcher, Listener listener) {
+        if (maxSegments <= 0) throw new IllegalArgumentException("maxSegments <= 0");
+        this.mClient = client;
+        this.mUrl = url;
+        this.mFile = file;
+        this.mPartFile = new File(file.getPath() + ".part");
+        this.mMaxSegments = maxSegments;
+        this.mDispatcher = dispatcher;
+        this.mListener = listener;
+        this.mTargetSegments = Math.min(INITIAL_SEGMENTS, maxSegments);
+    }
+
+    public HttpUrl getUrl() {
+        return this.mUrl;
+    }
+
+    public File getFile() {
+        return this.mFile;
+    }
+
+    /** Size of the resource, -1 until the probe answered or if the server did not say. */
+    public synchronized long getTotalBytes() {
+        return this.mTotalBytes;
+    }
+
+    public synchronized long getDownloadedBytes() {
+        return this.mDoneBytes;
+    }
+
+    /** Number of connections the download currently aims for. */
+    public synchronized int getSegmentCount() {
+        return this.mTargetSegments;
+    }
+
+    /** Stops the download, the listener is not called. */
+    public void cancel() {
+        List<Call> calls;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mFinished = true;
+            calls = new ArrayList<Call>(this.mCalls);
+            this.mCalls.clear();
+        }
+        for (Call call : calls) {
+            call.cancel();
+        }
+        this.closeOutput();
+        this.mPartFile.delete();
+    }
+
+    SegmentedDownload start() {
+        synchronized (this) {
+            this.mLevelStartNanos = System.nanoTime();
+        }
+        this.probe(true);
+        return this;
+    }
+
+    /** Asks for the first chunk, or for the whole body when {@code ranged} is false. */
+    private void probe(final boolean ranged) {
+        final Chunk probe = new Chunk(0, DEFAULT_MIN_CHUNK_SIZE - 1);
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(this.mUrl);
+        if (ranged) {
+            builder.header("Range", "bytes=0-" + probe.mEnd);
+        }
+        Call call = this.mClient.newCall(builder.build());
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mCalls.add(call);
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                fail(call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    onProbe(call, response, probe, ranged);
+                } catch (IOException e) {
+                    fail(call, e);
+                } finally {
+                    Util.closeQuietly(response);
+                }
+            }
+        });
+    }
+
+    private void onProbe(Call call, Response response, Chunk probe, boolean ranged) throws IOException {
+        long total = -1;
+        if (response.code() == 206 && ranged) {
+            if (parseStart(response.header("Content-Range")) != 0) {
+                throw new ProtocolException("Unexpected Content-Range " + response.header("Content-Range"));
+            }
+            total = parseTotal(response.header("Content-Range"));
+            if (total < 0) {
+                // Ranges without a known size can not be split, fetch the whole body instead
+                synchronized (this) {
+                    this.mCalls.remove(call);
+                }
+                this.probe(false);
+                return;
+            }
+        } else if (response.code() != 200) {
+            throw new IOException("Unexpected response " + response.code() + " " + response.message());
+        }
+        this.openOutput(total);
+        synchronized (this) {
+            // The probe counts as the first running connection
+            this.mRunning = 1;
+        }
+        if (total < 0) {
+            // No range support, the response is the whole body over one connection
+            this.mRemainingChunks = 1;
+            probe.mEnd = Long.MAX_VALUE;
+            this.transfer(call, response, probe);
+            this.chunkDone(call, probe, System.nanoTime());
+            return;
+        }
+        String validator = response.header("ETag");
+        if (validator == null || validator.startsWith("W/")) {
+            validator = response.header("Last-Modified");
+        }
+        long chunkSize = Math.max(DEFAULT_MIN_CHUNK_SIZE, total / (this.mMaxSegments * 4L));
+        synchronized (this) {
+            this.mValidator = validator;
+            this.mTotalBytes = total;
+            probe.mEnd = Math.min(probe.mEnd, total - 1);
+            for (long start = probe.mEnd + 1; start < total; start += chunkSize) {
+                this.mPending.addLast(new Chunk(start, Math.min(start + chunkSize, total) - 1));
+            }
+            this.mRemainingChunks = this.mPending.size() + 1;
+        }
+        this.startChunks();
+        try {
+            this.transfer(call, response, probe);
+        } catch (IOException e) {
+            this.retry(call, probe, e);
+            return;
+        }
+        this.chunkDone(call, probe, System.nanoTime());
+    }
+
+    private void openOutput(long total) throws IOException {
+        synchronized (this) {
+            if (this.mFinished) throw new IOException("Canceled");
+            this.mOutput = new RandomAccessFile(this.mPartFile, "rw");
+            // Preallocate so every connection writes at its own offset
+            this.mOutput.setLength(Math.max(0, total));
+            this.mChannel = this.mOutput.getChannel();
+        }
+    }
+
+    private void startChunks() {
+        List<Chunk> toStart = new ArrayList<Chunk>();
+        synchronized (this) {
+            while (!this.mFinished && this.mRunning < this.mTargetSegments && !this.mPending.isEmpty()) {
+                toStart.add(this.mPending.pollFirst());
+                this.mRunning++;
+            }
+        }
+        for (Chunk chunk : toStart) {
+            this.startChunk(chunk);
+        }
+    }
+
+    private void startChunk(final Chunk chunk) {
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
+                .url(this.mUrl)
+                .header("Range", "bytes=" + (chunk.mStart + chunk.mWritten) + "-" + chunk.mEnd);
+        if (this.mValidator != null) {
+            // A changed resource answers with a full 200 instead of mixing versions
+            builder.header("If-Range", this.mValidator);
+        }
+        Call call = this.mClient.newCall(builder.build());
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mCalls.add(call);
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                retry(call, chunk, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    if (response.code() == 200) {
+                        fail(call, new IOException("Resource changed during download"));
+                        return;
+                    }
+                    if (response.code() != 206) {
+                        retry(call, chunk, new IOException("Unexpected response " + response.code() + " " + response.message()));
+                        return;
+                    }
+                    if (parseStart(response.header("Content-Range")) != chunk.mStart + chunk.mWritten) {
+                        // Written at the wrong offset it would overwrite a neighbouring chunk
+                        retry(call, chunk, new IOException("Unexpected Content-Range " + response.header("Content-Range")));
+                        return;
+                    }
+                    transfer(call, response, chunk);
+                    chunkDone(call, chunk, System.nanoTime());
+                } catch (IOException e) {
+                    retry(call, chunk, e);
+                } finally {
+                    Util.closeQuietly(response);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies the body into the file at the chunk's offset, counting what was written for a retry.
+     * Bytes past the end of the range are not written, they fail the download.
+     */
+    private void transfer(Call call, Response response, Chunk chunk) throws IOException {
+        BufferedSource source = response.body().source();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (true) {
+            buffer.clear();
+            int read = source.read(buffer);
+            if (read == -1) break;
+            buffer.flip();
+            long position = chunk.mStart + chunk.mWritten;
+            boolean overlong = false;
+            if (chunk.mEnd != Long.MAX_VALUE && read > chunk.mEnd - position + 1) {
+                read = (int) (chunk.mEnd - position + 1);
+                buffer.limit(read);
+                overlong = true;
+            }
+            FileChannel channel;
+            synchronized (this) {
+                if (this.mFinished) throw new IOException("Canceled");
+                channel = this.mChannel;
+            }
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            chunk.mWritten += read;
+            synchronized (this) {
+                this.mDoneBytes += read;
+                this.mLevelBytes += read;
+            }
+            if (overlong) {
+                throw new ProtocolException("Response longer than the requested range");
+            }
+        }
+        if (chunk.mEnd != Long.MAX_VALUE && chunk.mStart + chunk.mWritten <= chunk.mEnd) {
+            throw new IOException("Connection closed before the end of the range");
+        }
+    }
+
+    private void chunkDone(Call call, Chunk chunk, long now) {
+        boolean complete;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mCalls.remove(call);
+            this.mRunning--;
+            this.mRemainingChunks--;
+            this.adapt(now);
+            complete = this.mRemainingChunks == 0;
+            if (complete) this.mFinished = true;
+        }
+        if (complete) {
+            this.complete();
+        } else {
+            this.startChunks();
+        }
+    }
+
+    /** Adds a connection while the last one raised throughput by 10%, drops one when it fell. */
+    private void adapt(long now) {
+        this.mLevelChunks++;
+        if (this.mLevelChunks < this.mTargetSegments) return;
+        double throughput = this.mLevelBytes / (double) Math.max(1, now - this.mLevelStartNanos);
+        if (this.mPreviousThroughput == 0 || throughput > this.mPreviousThroughput * 1.1) {
+            if (this.mTargetSegments < this.mMaxSegments) this.mTargetSegments++;
+        } else if (throughput < this.mPreviousThroughput * 0.9 && this.mTargetSegments > 1) {
+            this.mTargetSegments--;
+        }
+        this.mPreviousThroughput = throughput;
+        this.mLevelStartNanos = now;
+        this.mLevelBytes = 0;
+        this.mLevelChunks = 0;
+    }
+
+    private void retry(Call call, Chunk chunk, IOException e) {
+        if (e instanceof ProtocolException) {
+            // The server does not honour ranges, asking again would not help
+            this.fail(call, e);
+            return;
+        }
+        long delay;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mCalls.remove(call);
+            if (++chunk.mAttempts < DEFAULT_MAX_ATTEMPTS) {
+                this.mRunning--;
+                delay = BACKOFF.delayMillis(chunk.mAttempts);
+            } else {
+                delay = -1;
+            }
+        }
+        if (delay < 0) {
+            this.fail(call, e);
+            return;
+        }
+        // Backs off so a struggling server is not hit again by every segment at once
+        final Chunk retried = chunk;
+        RequestTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SegmentedDownload.this) {
+                    mPending.addFirst(retried);
+                }
+                startChunks();
+            }
+        }, delay);
+    }
+
+    private void fail(Call failed, final IOException e) {
+        List<Call> calls;
+        synchronized (this) {
+            if (this.mFinished) return;
+            this.mFinished = true;
+            calls = new ArrayList<Call>(this.mCalls);
+            this.mCalls.clear();
+        }
+        for (Call call : calls) {
+            if (call != failed) call.cancel();
+        }
+        this.closeOutput();
+        this.mPartFile.delete();
+        this.mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onDownloadFailure(SegmentedDownload.this, e);
+            }
+        });
+    }
+
+    private void complete() {
+        this.closeOutput();
+        if ((this.mFile.exists() && !this.mFile.delete()) || !this.mPartFile.renameTo(this.mFile)) {
+            this.mPartFile.delete();
+            final IOException e = new IOException("Can not move download to " + this.mFile);
+            this.mDispatcher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onDownloadFailure(SegmentedDownload.this, e);
+                }
+            });
+            return;
+        }
+        this.mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onDownloadComplete(SegmentedDownload.this, mFile);
+            }
+        });
+    }
+
+    private synchronized void closeOutput() {
+        Util.closeQuietly(this.mOutput);
+        this.mOutput = null;
+        this.mChannel = null;
+    }
+
+    private static long parseStart(String contentRange) {
+        // bytes 0-524287/10485760
+        if (contentRange == null || !contentRange.startsWith("bytes ")) return -1;
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) return -1;
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseTotal(String contentRange) {
+        // bytes 0-524287/10485760, the total is * when unknown
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Chunk {
+        final long mStart;
+        long mEnd;
+        long mWritten                                           = 0;
+        int mAttempts                                           = 0;
+
+        Chunk(long start, long end) {
+            this.mStart = start;
+            this.mEnd = end;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import okhttp3.internal.Util;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * A response body too large to keep in memory, written to a temporary file. It is deleted after
+ * {@link SpilledBodyListener#onHTTPRequestSpilled} returns unless it was moved with
+ * {@link #moveTo(File)}.
+ */
+public class SpilledBody {
+    private final File mFile;
+    private final long mLength;
+    private volatile boolean mMoved                             = false;
+
+    private SpilledBody(File file, long length) {
+        this.mFile = file;
+        this.mLength = length;
+    }
+
+    /** Writes {@code head}, if any, then the rest of {@code source} into a new file in {@code dir}. */
+    static SpilledBody spill(File dir, ByteBuffer head, BufferedSource source) throws IOException {
+        File file = File.createTempFile("response", ".body", dir);
+        BufferedSink sink = null;
+        try {
+            sink = Okio.buffer(Okio.sink(file));
+            long length = 0;
+            if (head != null) {
+                sink.write(head.array(), head.arrayOffset() + head.position(), head.remaining());
+                length += head.remaining();
+            }
+            length += sink.writeAll(source);
+            sink.close();
+            return new SpilledBody(file, length);
+        } catch (IOException e) {
+            Util.closeQuietly(sink);
+            file.delete();
+            throw e;
+        }
+    }
+
+    public File file() {
+        return this.mFile;
+    }
+
+    public long length() {
+        return this.mLength;
+    }
+
+    /** Opens the body for reading, the caller closes it. */
+    public BufferedSource source() throws IOException {
+        return Okio.buffer(Okio.source(this.mFile));
+    }
+
+    /** Maps the body read only into memory, it stays valid after the file is deleted. */
+    public MappedByteBuffer map() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(this.mFile, "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.mLength);
+        } finally {
+            Util.closeQuietly(file);
+        }
+    }
+
+    /** Keeps the body as {@code target} instead of deleting it, returns false if it can not be moved. */
+    public boolean moveTo(File target) {
+        if (this.mFile.renameTo(target)) {
+            this.mMoved = true;
+            return true;
+        }
+        return false;
+    }
+
+    void delete() {
+        if (!this.mMoved) this.mFile.delete();
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.deckyfx.httprequest;
+
+import okhttp3.Response;
+
+/**
+ * A {@link RequestListener} for requests with a {@link Request.Builder#spillThreshold(long)},
+ * receiving the successful response bodies over that size as a file.
+ */
+public interface SpilledBodyListener extends RequestListener {
+    /**
+     * Called after {@link #onHTTPRequestSuccess}, whose body is null in this case. The body is
+     * not stored in the cache and its file is deleted when this returns, unless it was moved
+     * with {@link SpilledBody#moveTo}.
+     */
+    void onHTTPRequestSpilled(Request request, Response response, SpilledBody body);
+}
@@ -0,0 +1,20 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * A {@link RequestListener} that reads successful response bodies itself, straight from the
+ * network on the OkHttp thread, instead of receiving the whole body as a String.
+ */
+public interface StreamingRequestListener extends RequestListener {
+    /**
+     * Called on the OkHttp thread for a 2xx response, before {@link #onHTTPRequestFinish}. Read
+     * {@code source} as text, bytes ({@code readByteString()}) or an {@code inputStream()}; it is
+     * closed afterwards. An exception thrown here fails the request. The following
+     * {@link #onHTTPRequestSuccess} gets a null body and the response is not stored in the cache.
+     */
+    void onHTTPRequestStream(Request request, Response response, BufferedSource source) throws IOException;
+}
@@ -0,0 +1,64 @@
+package com.github.deckyfx.httprequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Applies the per-request timeouts and deadline of a {@link Request} to each call made for it,
+ * without building a new {@code OkHttpClient}. Must be the first application interceptor.
+ */
+final class TimeoutInterceptor implements Interceptor {
+    private final Map<okhttp3.Request, Request> mRequests =
+            Collections.synchronizedMap(new WeakHashMap<okhttp3.Request, Request>());
+
+    static boolean hasOverrides(Request request) {
+        return request.connectTimeoutMillis() > 0 || request.readTimeoutMillis() > 0
+                || request.writeTimeoutMillis() > 0 || request.deadlineMillis() > 0;
+    }
+
+    void register(okhttp3.Request call, Request request) {
+        this.mRequests.put(call, request);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = this.mRequests.get(chain.request());
+        if (request == null) {
+            return chain.proceed(chain.request());
+        }
+        int connect = chain.connectTimeoutMillis();
+        int read = chain.readTimeoutMillis();
+        int write = chain.writeTimeoutMillis();
+        if (request.connectTimeoutMillis() > 0) connect = (int) request.connectTimeoutMillis();
+        if (request.readTimeoutMillis() > 0) read = (int) request.readTimeoutMillis();
+        if (request.writeTimeoutMillis() > 0) write = (int) request.writeTimeoutMillis();
+
+        CallDeadline deadline = request.deadline();
+        if (deadline != null) {
+            deadline.register(chain.call());
+            long remaining = deadline.remainingMillis();
+            if (remaining <= 0 || deadline.isExpired()) {
+                throw new InterruptedIOException(ErrorString.REQUEST_TIMEOUT);
+            }
+            // No single phase may outlive the whole request, 0 means no timeout in OkHttp
+            connect = clamp(connect, remaining);
+            read = clamp(read, remaining);
+            write = clamp(write, remaining);
+        }
+        return chain.withConnectTimeout(connect, TimeUnit.MILLISECONDS)
+                .withReadTimeout(read, TimeUnit.MILLISECONDS)
+                .withWriteTimeout(write, TimeUnit.MILLISECONDS)
+                .proceed(chain.request());
+    }
+
+    private static int clamp(int timeout, long remaining) {
+        return (int) (timeout == 0 ? remaining : Math.min(timeout, remaining));
+    }
+}
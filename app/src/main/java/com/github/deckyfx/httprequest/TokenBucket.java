@@ -0,0 +1,71 @@
+package com.github.deckyfx.httprequest;
+
+/**
+ * Classic token bucket: holds up to {@code capacity} tokens and refills continuously at
+ * {@code refillPerSecond}. {@link #reserve(long)} may take tokens ahead of time, leaving the
+ * bucket in debt that later callers wait out.
+ */
+class TokenBucket {
+    private final double mCapacity;
+    private final double mRefillPerNano;
+    private double mTokens;
+    private long mLastRefillNanos;
+
+    TokenBucket(double capacity, double refillPerSecond) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0");
+        if (refillPerSecond < 0) throw new IllegalArgumentException("refillPerSecond < 0");
+        this.mCapacity = capacity;
+        this.mRefillPerNano = refillPerSecond / 1000000000d;
+        this.mTokens = capacity;
+        this.mLastRefillNanos = System.nanoTime();
+    }
+
+    synchronized boolean tryAcquire() {
+        this.refill(System.nanoTime());
+        if (this.mTokens < 1) {
+            return false;
+        }
+        this.mTokens -= 1;
+        return true;
+    }
+
+    /**
+     * Takes a token and returns how many milliseconds the caller has to wait before using it, or
+     * -1 without taking anything if that wait would be longer than {@code maxWaitMillis}.
+     */
+    synchronized long reserve(long maxWaitMillis) {
+        long now = System.nanoTime();
+        this.refill(now);
+        // A pause moves the refill clock into the future
+        long waitNanos = Math.max(0, this.mLastRefillNanos - now);
+        if (this.mTokens < 1) {
+            if (this.mRefillPerNano == 0) return -1;
+            waitNanos += (long) Math.ceil((1 - this.mTokens) / this.mRefillPerNano);
+        }
+        long waitMillis = (waitNanos + 999999L) / 1000000L;
+        if (waitMillis > maxWaitMillis) {
+            return -1;
+        }
+        this.mTokens -= 1;
+        return waitMillis;
+    }
+
+    /** Empties the bucket and stops refilling it for {@code millis}, e.g. for a Retry-After. */
+    synchronized void pause(long millis) {
+        long now = System.nanoTime();
+        this.refill(now);
+        this.mTokens = Math.min(this.mTokens, 0);
+        this.mLastRefillNanos = Math.max(this.mLastRefillNanos, now + millis * 1000000L);
+    }
+
+    synchronized double available() {
+        this.refill(System.nanoTime());
+        return this.mTokens;
+    }
+
+    private void refill(long now) {
+        if (now - this.mLastRefillNanos <= 0) return;
+        this.mTokens = Math.min(this.mCapacity, this.mTokens + (now - this.mLastRefillNanos) * this.mRefillPerNano);
+        this.mLastRefillNanos = now;
+    }
+}
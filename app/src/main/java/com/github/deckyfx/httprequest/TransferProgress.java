@@ -0,0 +1,64 @@
+package com.github.deckyfx.httprequest;
+
+/**
+ * Snapshot of a request or response body transfer, as delivered to a
+ * {@link ProgressRequestListener}.
+ */
+public final class TransferProgress {
+    public enum Direction { UPLOAD, DOWNLOAD }
+
+    private final Direction mDirection;
+    private final long mBytes;
+    private final long mContentLength;
+    private final long mBytesPerSecond;
+    private final long mEtaMillis;
+    private final boolean mDone;
+
+    TransferProgress(Direction direction, long bytes, long contentLength, long bytesPerSecond, long etaMillis, boolean done) {
+        this.mDirection = direction;
+        this.mBytes = bytes;
+        this.mContentLength = contentLength;
+        this.mBytesPerSecond = bytesPerSecond;
+        this.mEtaMillis = etaMillis;
+        this.mDone = done;
+    }
+
+    public Direction direction() {
+        return this.mDirection;
+    }
+
+    /** Bytes transferred so far. */
+    public long bytes() {
+        return this.mBytes;
+    }
+
+    /** Size of the body, -1 if unknown. */
+    public long contentLength() {
+        return this.mContentLength;
+    }
+
+    /** Share of the body transferred, between 0 and 1, or -1 if the size is unknown. */
+    public float fraction() {
+        if (this.mDone) return 1f;
+        return this.mContentLength > 0 ? Math.min(1f, this.mBytes / (float) this.mContentLength) : -1f;
+    }
+
+    /** Smoothed transfer rate. */
+    public long bytesPerSecond() {
+        return this.mBytesPerSecond;
+    }
+
+    /** Estimated time left, -1 if the size or the rate is unknown. */
+    public long etaMillis() {
+        return this.mEtaMillis;
+    }
+
+    public boolean isDone() {
+        return this.mDone;
+    }
+
+    @Override
+    public String toString() {
+        return this.mDirection + " " + this.mBytes + "/" + this.mContentLength + " at " + this.mBytesPerSecond + " B/s, eta " + this.mEtaMillis + " ms";
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.deckyfx.httprequest;
+
+import okhttp3.Response;
+
+/**
+ * A {@link RequestListener} for requests with a {@link ResponseDecoder}, it receives the decoded
+ * object instead of parsing the body String on the callback thread.
+ */
+public interface TypedRequestListener<T> extends RequestListener {
+    /** Called after {@link #onHTTPRequestSuccess}, whose body is null when it was streamed into the decoder. */
+    void onHTTPRequestResult(Request request, Response response, T result);
+
+    /** Called after {@link #onHTTPRequestRescue} with the cached copy decoded the same way. */
+    void onHTTPRequestRescueResult(Request request, T result);
+}
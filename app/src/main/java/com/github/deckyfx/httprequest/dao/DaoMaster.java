@@ -14,19 +14,23 @@ import com.github.deckyfx.greendao.identityscope.IdentityScopeType;
 
 // THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
 /**
- * Master of DAO (schema version 1806261419): knows all DAOs.
+ * Master of DAO (schema version 1806261421): knows all DAOs.
  */
 public class DaoMaster extends AbstractDaoMaster {
-    public static final int SCHEMA_VERSION = 1806261419;
+    public static final int SCHEMA_VERSION = 1806261421;
 
     /** Creates underlying database table using DAOs. */
     public static void createAllTables(Database db, boolean ifNotExists) {
         RequestCacheDao.createTable(db, ifNotExists);
+        OutboxRequestDao.createTable(db, ifNotExists);
+        UploadSessionDao.createTable(db, ifNotExists);
     }
 
     /** Drops underlying database table using DAOs. */
     public static void dropAllTables(Database db, boolean ifExists) {
         RequestCacheDao.dropTable(db, ifExists);
+        OutboxRequestDao.dropTable(db, ifExists);
+        UploadSessionDao.dropTable(db, ifExists);
     }
 
     /**
@@ -46,6 +50,8 @@ public class DaoMaster extends AbstractDaoMaster {
     public DaoMaster(Database db) {
         super(db, SCHEMA_VERSION);
         registerDaoClass(RequestCacheDao.class);
+        registerDaoClass(OutboxRequestDao.class);
+        registerDaoClass(UploadSessionDao.class);
     }
 
     public DaoSession newSession() {
@@ -18,8 +18,12 @@ import java.util.Map;
 public class DaoSession extends AbstractDaoSession {
 
     private final DaoConfig requestCacheDaoConfig;
+    private final DaoConfig outboxRequestDaoConfig;
+    private final DaoConfig uploadSessionDaoConfig;
 
     private final RequestCacheDao requestCacheDao;
+    private final OutboxRequestDao outboxRequestDao;
+    private final UploadSessionDao uploadSessionDao;
 
     public DaoSession(Database db, IdentityScopeType type, Map<Class<? extends AbstractDao<?, ?>>, DaoConfig>
             daoConfigMap) {
@@ -28,17 +32,37 @@ public class DaoSession extends AbstractDaoSession {
         requestCacheDaoConfig = daoConfigMap.get(RequestCacheDao.class).clone();
         requestCacheDaoConfig.initIdentityScope(type);
 
+        outboxRequestDaoConfig = daoConfigMap.get(OutboxRequestDao.class).clone();
+        outboxRequestDaoConfig.initIdentityScope(type);
+
+        uploadSessionDaoConfig = daoConfigMap.get(UploadSessionDao.class).clone();
+        uploadSessionDaoConfig.initIdentityScope(type);
+
         requestCacheDao = new RequestCacheDao(requestCacheDaoConfig, this);
+        outboxRequestDao = new OutboxRequestDao(outboxRequestDaoConfig, this);
+        uploadSessionDao = new UploadSessionDao(uploadSessionDaoConfig, this);
 
         registerDao(RequestCache.class, requestCacheDao);
+        registerDao(OutboxRequest.class, outboxRequestDao);
+        registerDao(UploadSession.class, uploadSessionDao);
     }
     
     public void clear() {
         requestCacheDaoConfig.clearIdentityScope();
+        outboxRequestDaoConfig.clearIdentityScope();
+        uploadSessionDaoConfig.clearIdentityScope();
     }
 
     public RequestCacheDao getRequestCacheDao() {
         return requestCacheDao;
     }
 
+    public OutboxRequestDao getOutboxRequestDao() {
+        return outboxRequestDao;
+    }
+
+    public UploadSessionDao getUploadSessionDao() {
+        return uploadSessionDao;
+    }
+
 }
@@ -0,0 +1,171 @@
+package com.github.deckyfx.httprequest.dao;
+
+import com.github.deckyfx.greendao.DaoException;
+import com.github.deckyfx.greendao.annotation.Entity;
+import com.github.deckyfx.greendao.annotation.Generated;
+import com.github.deckyfx.greendao.annotation.Id;
+
+// THIS CODE IS GENERATED BY greenDAO, EDIT ONLY INSIDE THE "KEEP"-SECTIONS
+
+// KEEP INCLUDES - put your custom includes here
+// KEEP INCLUDES END
+
+/**
+ * Entity mapped to table "OUTBOX_REQUEST".
+ */
+@Entity(active = true)
+public class OutboxRequest implements java.io.Serializable {
+
+    @Id(autoincrement = true)
+    private Long id;
+    private String url;
+    private String method;
+    private String header;
+    private byte[] body;
+    private String contentType;
+    private Integer attempts;
+    private java.util.Date createdAt;
+
+    /** Used to resolve relations */
+    @Generated
+    private transient DaoSession daoSession;
+
+    /** Used for active entity operations. */
+    @Generated
+    private transient OutboxRequestDao myDao;
+
+    // KEEP FIELDS - put your custom fields here
+    // KEEP FIELDS END
+
+    @Generated
+    public OutboxRequest() {
+    }
+
+    public OutboxRequest(Long id) {
+        this.id = id;
+    }
+
+    @Generated
+    public OutboxRequest(Long id, String url, String method, String header, byte[] body, String contentType, Integer attempts, java.util.Date createdAt) {
+        this.id = id;
+        this.url = url;
+        this.method = method;
+        this.header = header;
+        this.body = body;
+        this.contentType = contentType;
+        this.attempts = attempts;
+        this.createdAt = createdAt;
+    }
+
+    /** called by internal mechanisms, do not call yourself. */
+    @Generated
+    public void __setDaoSession(DaoSession daoSession) {
+        this.daoSession = daoSession;
+        myDao = daoSession != null ? daoSession.getOutboxRequestDao() : null;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public void setHeader(String header) {
+        this.header = header;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public java.util.Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(java.util.Date createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    /**
+    * Convenient call for greendao.AbstractDao#delete(Object).
+    * Entity must attached to an entity context.
+    */
+    @Generated
+    public void delete() {
+        __throwIfDetached();
+        myDao.delete(this);
+    }
+
+    /**
+    * Convenient call for greendao.AbstractDao#update(Object).
+    * Entity must attached to an entity context.
+    */
+    @Generated
+    public void update() {
+        __throwIfDetached();
+        myDao.update(this);
+    }
+
+    /**
+    * Convenient call for greendao.AbstractDao#refresh(Object).
+    * Entity must attached to an entity context.
+    */
+    @Generated
+    public void refresh() {
+        __throwIfDetached();
+        myDao.refresh(this);
+    }
+
+    @Generated
+    private void __throwIfDetached() {
+        if (myDao == null) {
+            throw new DaoException("Entity is detached from DAO context");
+        }
+    }
+
+    // KEEP METHODS - put your custom methods here
+    // KEEP METHODS END
+
+}
@@ -0,0 +1,220 @@
+package com.github.deckyfx.httprequest.dao;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import com.github.deckyfx.greendao.AbstractDao;
+import com.github.deckyfx.greendao.Property;
+import com.github.deckyfx.greendao.database.Database;
+import com.github.deckyfx.greendao.database.DatabaseStatement;
+import com.github.deckyfx.greendao.internal.DaoConfig;
+
+// THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
+/** 
+ * DAO for table "OUTBOX_REQUEST".
+*/
+public class OutboxRequestDao extends AbstractDao<OutboxRequest, Long> {
+
+    public static final String TABLENAME = "OUTBOX_REQUEST";
+
+    /**
+     * Properties of entity OutboxRequest.<br/>
+     * Can be used for QueryBuilder and for referencing column names.
+     */
+    public static class Properties {
+        public final static Property Id = new Property(0, Long.class, "id", true, "_id");
+        public final static Property Url = new Property(1, String.class, "url", false, "URL");
+        public final static Property Method = new Property(2, String.class, "method", false, "METHOD");
+        public final static Property Header = new Property(3, String.class, "header", false, "HEADER");
+        public final static Property Body = new Property(4, byte[].class, "body", false, "BODY");
+        public final static Property ContentType = new Property(5, String.class, "contentType", false, "CONTENT_TYPE");
+        public final static Property Attempts = new Property(6, Integer.class, "attempts", false, "ATTEMPTS");
+        public final static Property CreatedAt = new Property(7, java.util.Date.class, "createdAt", false, "CREATED_AT");
+    }
+
+    private DaoSession daoSession;
+
+
+    public OutboxRequestDao(DaoConfig config) {
+        super(config);
+    }
+    
+    public OutboxRequestDao(DaoConfig config, DaoSession daoSession) {
+        super(config, daoSession);
+        this.daoSession = daoSession;
+    }
+
+    /** Creates the underlying database table. */
+    public static void createTable(Database db, boolean ifNotExists) {
+        String constraint = ifNotExists? "IF NOT EXISTS ": "";
+        db.execSQL("CREATE TABLE " + constraint + "\"OUTBOX_REQUEST\" (" + //
+                "\"_id\" INTEGER PRIMARY KEY AUTOINCREMENT ," + // 0: id
+                "\"URL\" TEXT," + // 1: url
+                "\"METHOD\" TEXT," + // 2: method
+                "\"HEADER\" TEXT," + // 3: header
+                "\"BODY\" BLOB," + // 4: body
+                "\"CONTENT_TYPE\" TEXT," + // 5: contentType
+                "\"ATTEMPTS\" INTEGER," + // 6: attempts
+                "\"CREATED_AT\" INTEGER);"); // 7: createdAt
+    }
+
+    /** Drops the underlying database table. */
+    public static void dropTable(Database db, boolean ifExists) {
+        String sql = "DROP TABLE " + (ifExists ? "IF EXISTS " : "") + "\"OUTBOX_REQUEST\"";
+        db.execSQL(sql);
+    }
+
+    @Override
+    protected final void bindValues(DatabaseStatement stmt, OutboxRequest entity) {
+        stmt.clearBindings();
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
+ 
+        String url = entity.getUrl();
+        if (url != null) {
+            stmt.bindString(2, url);
+        }
+ 
+        String method = entity.getMethod();
+        if (method != null) {
+            stmt.bindString(3, method);
+        }
+ 
+        String header = entity.getHeader();
+        if (header != null) {
+            stmt.bindString(4, header);
+        }
+ 
+        byte[] body = entity.getBody();
+        if (body != null) {
+            stmt.bindBlob(5, body);
+        }
+ 
+        String contentType = entity.getContentType();
+        if (contentType != null) {
+            stmt.bindString(6, contentType);
+        }
+ 
+        Integer attempts = entity.getAttempts();
+        if (attempts != null) {
+            stmt.bindLong(7, attempts);
+        }
+ 
+        java.util.Date createdAt = entity.getCreatedAt();
+        if (createdAt != null) {
+            stmt.bindLong(8, createdAt.getTime());
+        }
+    }
+
+    @Override
+    protected final void bindValues(SQLiteStatement stmt, OutboxRequest entity) {
+        stmt.clearBindings();
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
+ 
+        String url = entity.getUrl();
+        if (url != null) {
+            stmt.bindString(2, url);
+        }
+ 
+        String method = entity.getMethod();
+        if (method != null) {
+            stmt.bindString(3, method);
+        }
+ 
+        String header = entity.getHeader();
+        if (header != null) {
+            stmt.bindString(4, header);
+        }
+ 
+        byte[] body = entity.getBody();
+        if (body != null) {
+            stmt.bindBlob(5, body);
+        }
+ 
+        String contentType = entity.getContentType();
+        if (contentType != null) {
+            stmt.bindString(6, contentType);
+        }
+ 
+        Integer attempts = entity.getAttempts();
+        if (attempts != null) {
+            stmt.bindLong(7, attempts);
+        }
+ 
+        java.util.Date createdAt = entity.getCreatedAt();
+        if (createdAt != null) {
+            stmt.bindLong(8, createdAt.getTime());
+        }
+    }
+
+    @Override
+    protected final void attachEntity(OutboxRequest entity) {
+        super.attachEntity(entity);
+        entity.__setDaoSession(daoSession);
+    }
+
+    @Override
+    public Long readKey(Cursor cursor, int offset) {
+        return cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0);
+    }    
+
+    @Override
+    public OutboxRequest readEntity(Cursor cursor, int offset) {
+        OutboxRequest entity = new OutboxRequest( //
+            cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0), // id
+            cursor.isNull(offset + 1) ? null : cursor.getString(offset + 1), // url
+            cursor.isNull(offset + 2) ? null : cursor.getString(offset + 2), // method
+            cursor.isNull(offset + 3) ? null : cursor.getString(offset + 3), // header
+            cursor.isNull(offset + 4) ? null : cursor.getBlob(offset + 4), // body
+            cursor.isNull(offset + 5) ? null : cursor.getString(offset + 5), // contentType
+            cursor.isNull(offset + 6) ? null : cursor.getInt(offset + 6), // attempts
+            cursor.isNull(offset + 7) ? null : new java.util.Date(cursor.getLong(offset + 7)) // createdAt
+        );
+        return entity;
+    }
+     
+    @Override
+    public void readEntity(Cursor cursor, OutboxRequest entity, int offset) {
+        entity.setId(cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0));
+        entity.setUrl(cursor.isNull(offset + 1) ? null : cursor.getString(offset + 1));
+        entity.setMethod(cursor.isNull(offset + 2) ? null : cursor.getString(offset + 2));
+        entity.setHeader(cursor.isNull(offset + 3) ? null : cursor.getString(offset + 3));
+        entity.setBody(cursor.isNull(offset + 4) ? null : cursor.getBlob(offset + 4));
+        entity.setContentType(cursor.isNull(offset + 5) ? null : cursor.getString(offset + 5));
+        entity.setAttempts(cursor.isNull(offset + 6) ? null : cursor.getInt(offset + 6));
+        entity.setCreatedAt(cursor.isNull(offset + 7) ? null : new java.util.Date(cursor.getLong(offset + 7)));
+     }
+    
+    @Override
+    protected final Long updateKeyAfterInsert(OutboxRequest entity, long rowId) {
+        entity.setId(rowId);
+        return rowId;
+    }
+    
+    @Override
+    public Long getKey(OutboxRequest entity) {
+        if(entity != null) {
+            return entity.getId();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKey(OutboxRequest entity) {
+        return entity.getId() != null;
+    }
+
+    @Override
+    protected final boolean isEntityUpdateable() {
+        return true;
+    }
+    
+}
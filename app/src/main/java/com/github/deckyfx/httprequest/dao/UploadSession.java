@@ -0,0 +1,181 @@
+package com.github.deckyfx.httprequest.dao;
+
+import com.github.deckyfx.greendao.DaoException;
+import com.github.deckyfx.greendao.annotation.Entity;
+import com.github.deckyfx.greendao.annotation.Generated;
+import com.github.deckyfx.greendao.annotation.Id;
+
+// THIS CODE IS GENERATED BY greenDAO, EDIT ONLY INSIDE THE "KEEP"-SECTIONS
+
+// KEEP INCLUDES - put your custom includes here
+// KEEP INCLUDES END
+
+/**
+ * Entity mapped to table "UPLOAD_SESSION".
+ */
+@Entity(active = true)
+public class UploadSession implements java.io.Serializable {
+
+    @Id(autoincrement = true)
+    private Long id;
+    private String uploadId;
+    private String url;
+    private String path;
+    private Long length;
+    private Long modified;
+    private Integer partSize;
+    private byte[] parts;
+    private java.util.Date createdAt;
+
+    /** Used to resolve relations */
+    @Generated
+    private transient DaoSession daoSession;
+
+    /** Used for active entity operations. */
+    @Generated
+    private transient UploadSessionDao myDao;
+
+    // KEEP FIELDS - put your custom fields here
+    // KEEP FIELDS END
+
+    @Generated
+    public UploadSession() {
+    }
+
+    public UploadSession(Long id) {
+        this.id = id;
+    }
+
+    @Generated
+    public UploadSession(Long id, String uploadId, String url, String path, Long length, Long modified, Integer partSize, byte[] parts, java.util.Date createdAt) {
+        this.id = id;
+        this.uploadId = uploadId;
+        this.url = url;
+        this.path = path;
+        this.length = length;
+        this.modified = modified;
+        this.partSize = partSize;
+        this.parts = parts;
+        this.createdAt = createdAt;
+    }
+
+    /** called by internal mechanisms, do not call yourself. */
+    @Generated
+    public void __setDaoSession(DaoSession daoSession) {
+        this.daoSession = daoSession;
+        myDao = daoSession != null ? daoSession.getUploadSessionDao() : null;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Long getLength() {
+        return length;
+    }
+
+    public void setLength(Long length) {
+        this.length = length;
+    }
+
+    public Long getModified() {
+        return modified;
+    }
+
+    public void setModified(Long modified) {
+        this.modified = modified;
+    }
+
+    public Integer getPartSize() {
+        return partSize;
+    }
+
+    public void setPartSize(Integer partSize) {
+        this.partSize = partSize;
+    }
+
+    public byte[] getParts() {
+        return parts;
+    }
+
+    public void setParts(byte[] parts) {
+        this.parts = parts;
+    }
+
+    public java.util.Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(java.util.Date createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    /**
+    * Convenient call for greendao.AbstractDao#delete(Object).
+    * Entity must attached to an entity context.
+    */
+    @Generated
+    public void delete() {
+        __throwIfDetached();
+        myDao.delete(this);
+    }
+
+    /**
+    * Convenient call for greendao.AbstractDao#update(Object).
+    * Entity must attached to an entity context.
+    */
+    @Generated
+    public void update() {
+        __throwIfDetached();
+        myDao.update(this);
+    }
+
+    /**
+    * Convenient call for greendao.AbstractDao#refresh(Object).
+    * Entity must attached to an entity context.
+    */
+    @Generated
+    public void refresh() {
+        __throwIfDetached();
+        myDao.refresh(this);
+    }
+
+    @Generated
+    private void __throwIfDetached() {
+        if (myDao == null) {
+            throw new DaoException("Entity is detached from DAO context");
+        }
+    }
+
+    // KEEP METHODS - put your custom methods here
+    // KEEP METHODS END
+
+}
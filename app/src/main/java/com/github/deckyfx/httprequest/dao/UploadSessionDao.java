@@ -0,0 +1,234 @@
+package com.github.deckyfx.httprequest.dao;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import com.github.deckyfx.greendao.AbstractDao;
+import com.github.deckyfx.greendao.Property;
+import com.github.deckyfx.greendao.database.Database;
+import com.github.deckyfx.greendao.database.DatabaseStatement;
+import com.github.deckyfx.greendao.internal.DaoConfig;
+
+// THIS CODE IS GENERATED BY greenDAO, DO NOT EDIT.
+/** 
+ * DAO for table "UPLOAD_SESSION".
+*/
+public class UploadSessionDao extends AbstractDao<UploadSession, Long> {
+
+    public static final String TABLENAME = "UPLOAD_SESSION";
+
+    /**
+     * Properties of entity UploadSession.<br/>
+     * Can be used for QueryBuilder and for referencing column names.
+     */
+    public static class Properties {
+        public final static Property Id = new Property(0, Long.class, "id", true, "_id");
+        public final static Property UploadId = new Property(1, String.class, "uploadId", false, "UPLOAD_ID");
+        public final static Property Url = new Property(2, String.class, "url", false, "URL");
+        public final static Property Path = new Property(3, String.class, "path", false, "PATH");
+        public final static Property Length = new Property(4, Long.class, "length", false, "LENGTH");
+        public final static Property Modified = new Property(5, Long.class, "modified", false, "MODIFIED");
+        public final static Property PartSize = new Property(6, Integer.class, "partSize", false, "PART_SIZE");
+        public final static Property Parts = new Property(7, byte[].class, "parts", false, "PARTS");
+        public final static Property CreatedAt = new Property(8, java.util.Date.class, "createdAt", false, "CREATED_AT");
+    }
+
+    private DaoSession daoSession;
+
+
+    public UploadSessionDao(DaoConfig config) {
+        super(config);
+    }
+    
+    public UploadSessionDao(DaoConfig config, DaoSession daoSession) {
+        super(config, daoSession);
+        this.daoSession = daoSession;
+    }
+
+    /** Creates the underlying database table. */
+    public static void createTable(Database db, boolean ifNotExists) {
+        String constraint = ifNotExists? "IF NOT EXISTS ": "";
+        db.execSQL("CREATE TABLE " + constraint + "\"UPLOAD_SESSION\" (" + //
+                "\"_id\" INTEGER PRIMARY KEY AUTOINCREMENT ," + // 0: id
+                "\"UPLOAD_ID\" TEXT," + // 1: uploadId
+                "\"URL\" TEXT," + // 2: url
+                "\"PATH\" TEXT," + // 3: path
+                "\"LENGTH\" INTEGER," + // 4: length
+                "\"MODIFIED\" INTEGER," + // 5: modified
+                "\"PART_SIZE\" INTEGER," + // 6: partSize
+                "\"PARTS\" BLOB," + // 7: parts
+                "\"CREATED_AT\" INTEGER);"); // 8: createdAt
+    }
+
+    /** Drops the underlying database table. */
+    public static void dropTable(Database db, boolean ifExists) {
+        String sql = "DROP TABLE " + (ifExists ? "IF EXISTS " : "") + "\"UPLOAD_SESSION\"";
+        db.execSQL(sql);
+    }
+
+    @Override
+    protected final void bindValues(DatabaseStatement stmt, UploadSession entity) {
+        stmt.clearBindings();
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
+ 
+        String uploadId = entity.getUploadId();
+        if (uploadId != null) {
+            stmt.bindString(2, uploadId);
+        }
+ 
+        String url = entity.getUrl();
+        if (url != null) {
+            stmt.bindString(3, url);
+        }
+ 
+        String path = entity.getPath();
+        if (path != null) {
+            stmt.bindString(4, path);
+        }
+ 
+        Long length = entity.getLength();
+        if (length != null) {
+            stmt.bindLong(5, length);
+        }
+ 
+        Long modified = entity.getModified();
+        if (modified != null) {
+            stmt.bindLong(6, modified);
+        }
+ 
+        Integer partSize = entity.getPartSize();
+        if (partSize != null) {
+            stmt.bindLong(7, partSize);
+        }
+ 
+        byte[] parts = entity.getParts();
+        if (parts != null) {
+            stmt.bindBlob(8, parts);
+        }
+ 
+        java.util.Date createdAt = entity.getCreatedAt();
+        if (createdAt != null) {
+            stmt.bindLong(9, createdAt.getTime());
+        }
+    }
+
+    @Override
+    protected final void bindValues(SQLiteStatement stmt, UploadSession entity) {
+        stmt.clearBindings();
+ 
+        Long id = entity.getId();
+        if (id != null) {
+            stmt.bindLong(1, id);
+        }
+ 
+        String uploadId = entity.getUploadId();
+        if (uploadId != null) {
+            stmt.bindString(2, uploadId);
+        }
+ 
+        String url = entity.getUrl();
+        if (url != null) {
+            stmt.bindString(3, url);
+        }
+ 
+        String path = entity.getPath();
+        if (path != null) {
+            stmt.bindString(4, path);
+        }
+ 
+        Long length = entity.getLength();
+        if (length != null) {
+            stmt.bindLong(5, length);
+        }
+ 
+        Long modified = entity.getModified();
+        if (modified != null) {
+            stmt.bindLong(6, modified);
+        }
+ 
+        Integer partSize = entity.getPartSize();
+        if (partSize != null) {
+            stmt.bindLong(7, partSize);
+        }
+ 
+        byte[] parts = entity.getParts();
+        if (parts != null) {
+            stmt.bindBlob(8, parts);
+        }
+ 
+        java.util.Date createdAt = entity.getCreatedAt();
+        if (createdAt != null) {
+            stmt.bindLong(9, createdAt.getTime());
+        }
+    }
+
+    @Override
+    protected final void attachEntity(UploadSession entity) {
+        super.attachEntity(entity);
+        entity.__setDaoSession(daoSession);
+    }
+
+    @Override
+    public Long readKey(Cursor cursor, int offset) {
+        return cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0);
+    }    
+
+    @Override
+    public UploadSession readEntity(Cursor cursor, int offset) {
+        UploadSession entity = new UploadSession( //
+            cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0), // id
+            cursor.isNull(offset + 1) ? null : cursor.getString(offset + 1), // uploadId
+            cursor.isNull(offset + 2) ? null : cursor.getString(offset + 2), // url
+            cursor.isNull(offset + 3) ? null : cursor.getString(offset + 3), // path
+            cursor.isNull(offset + 4) ? null : cursor.getLong(offset + 4), // length
+            cursor.isNull(offset + 5) ? null : cursor.getLong(offset + 5), // modified
+            cursor.isNull(offset + 6) ? null : cursor.getInt(offset + 6), // partSize
+            cursor.isNull(offset + 7) ? null : cursor.getBlob(offset + 7), // parts
+            cursor.isNull(offset + 8) ? null : new java.util.Date(cursor.getLong(offset + 8)) // createdAt
+        );
+        return entity;
+    }
+     
+    @Override
+    public void readEntity(Cursor cursor, UploadSession entity, int offset) {
+        entity.setId(cursor.isNull(offset + 0) ? null : cursor.getLong(offset + 0));
+        entity.setUploadId(cursor.isNull(offset + 1) ? null : cursor.getString(offset + 1));
+        entity.setUrl(cursor.isNull(offset + 2) ? null : cursor.getString(offset + 2));
+        entity.setPath(cursor.isNull(offset + 3) ? null : cursor.getString(offset + 3));
+        entity.setLength(cursor.isNull(offset + 4) ? null : cursor.getLong(offset + 4));
+        entity.setModified(cursor.isNull(offset + 5) ? null : cursor.getLong(offset + 5));
+        entity.setPartSize(cursor.isNull(offset + 6) ? null : cursor.getInt(offset + 6));
+        entity.setParts(cursor.isNull(offset + 7) ? null : cursor.getBlob(offset + 7));
+        entity.setCreatedAt(cursor.isNull(offset + 8) ? null : new java.util.Date(cursor.getLong(offset + 8)));
+     }
+    
+    @Override
+    protected final Long updateKeyAfterInsert(UploadSession entity, long rowId) {
+        entity.setId(rowId);
+        return rowId;
+    }
+    
+    @Override
+    public Long getKey(UploadSession entity) {
+        if(entity != null) {
+            return entity.getId();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasKey(UploadSession entity) {
+        return entity.getId() != null;
+    }
+
+    @Override
+    protected final boolean isEntityUpdateable() {
+        return true;
+    }
+    
+}